@@ -23,8 +23,8 @@ import android.support.test.runner.AndroidJUnit4;
 import android.telephony.SubscriptionInfo;
 import android.util.Log;
 
-import com.kaliturin.silence.utils.ContactsAccessHelper;
-import com.kaliturin.silence.utils.SubscriptionHelper;
+import org.ch.silence.utils.ContactsAccessHelper;
+import org.ch.silence.utils.SubscriptionHelper;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
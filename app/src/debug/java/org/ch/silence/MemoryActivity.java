@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence;
+
+import android.app.Activity;
+import android.graphics.Typeface;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import org.ch.silence.utils.MemoryAccounting;
+import org.ch.silence.utils.Settings;
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Debug screen of the memory accounting (is in the debug builds only). Opening it
+ * turns on the counting of the allocations per decision (till the process end),
+ * and writes the dump of the report to the files of the application. The shadow mode of the matching is
+ * turned on/off by the extra (adb shell am start -n org.ch.silence/.MemoryActivity
+ * --ez shadow_mode true).
+ */
+public class MemoryActivity extends Activity {
+    private static final String TAG = MemoryActivity.class.getName();
+    public static final String EXTRA_SHADOW_MODE = "shadow_mode";
+
+    private TextView textView;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        textView = new TextView(this);
+        textView.setTypeface(Typeface.MONOSPACE);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        textView.setPadding(padding, padding, padding, padding);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            textView.setTextIsSelectable(true);
+        }
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(textView);
+        setContentView(scrollView);
+
+        MemoryAccounting.setAllocationTracking(true);
+        if (getIntent().hasExtra(EXTRA_SHADOW_MODE)) {
+            Settings.setBooleanValue(this, Settings.SHADOW_MODE,
+                    getIntent().getBooleanExtra(EXTRA_SHADOW_MODE, false));
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        try {
+            File file = MemoryAccounting.dump(this);
+            textView.setText(file.getPath() + "\n\n" +
+                    MemoryAccounting.toJson(this).toString(2));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Memory report isn't written", e);
+            textView.setText(e.toString());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+
+import org.ch.silence.utils.JournalWriter;
+import org.ch.silence.utils.MemoryAccounting;
+import org.ch.silence.utils.WarmUp;
+
+public class SilenceApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // the process can be started by the incoming call, so prepare everything at once
+        WarmUp.start(this);
+        JournalWriter.register(this);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // the rules are released if the process is likely to be killed anyway
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            MemoryAccounting.trim(this, true);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            MemoryAccounting.trim(this, false);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+
+        MemoryAccounting.trim(this, true);
+    }
+}
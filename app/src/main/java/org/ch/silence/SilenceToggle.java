@@ -16,43 +16,81 @@
 
 package org.ch.silence;
 
+import android.content.Context;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
+import org.ch.silence.utils.Profiles;
 import org.ch.silence.utils.Settings;
 
+import java.util.List;
+
+/**
+ * Quick settings tile. Every click switches to the next state:
+ * off, whitelist mode, and then each of the silence profiles.
+ */
 public class SilenceToggle extends TileService {
 
     @Override
     public void onTileAdded() {
         super.onTileAdded();
 
-        Tile tile = getQsTile();
+        updateTile(getQsTile());
+    }
 
-        tile.setState(Tile.STATE_ACTIVE);
-        tile.updateTile();
+    @Override
+    public void onStartListening() {
+        super.onStartListening();
+
+        updateTile(getQsTile());
     }
 
     @Override
     public void onClick() {
 
-        Tile tile = getQsTile();
+        Context context = getApplicationContext();
+        List<Profiles.Profile> profiles = Profiles.getProfiles(context);
+        Profiles.Profile active = Profiles.getActive(context);
 
-        int oldState;
-        int newState;
+        if (active == null) {
+            if (!Settings.getBooleanValue(context, Settings.ENABLE_WHITELIST)) {
+                Settings.setBooleanValue(context, Settings.ENABLE_WHITELIST, true);
+            } else if (profiles.isEmpty()) {
+                Settings.setBooleanValue(context, Settings.ENABLE_WHITELIST, false);
+            } else {
+                Profiles.activate(context, profiles.get(0).id);
+            }
+        } else {
+            int next = profiles.indexOf(active) + 1;
+            if (next > 0 && next < profiles.size()) {
+                Profiles.activate(context, profiles.get(next).id);
+            } else {
+                Profiles.activate(context, Profiles.NONE);
+                Settings.setBooleanValue(context, Settings.ENABLE_WHITELIST, false);
+            }
+        }
 
-        oldState = tile.getState();
+        updateTile(getQsTile());
+    }
 
-        if(oldState == Tile.STATE_INACTIVE) {
-            newState = Tile.STATE_ACTIVE;
-            Settings.setBooleanValue(getApplicationContext(), Settings.ENABLE_WHITELIST, true);
-        } else {
-            newState = Tile.STATE_INACTIVE;
-            Settings.setBooleanValue(getApplicationContext(), Settings.ENABLE_WHITELIST, false);
+    // Shows the current state on the tile
+    private void updateTile(Tile tile) {
+        if (tile == null) {
+            return;
         }
 
-        tile.setState(newState);
-        tile.updateTile();
+        Context context = getApplicationContext();
+        Profiles.Profile active = Profiles.getActive(context);
 
+        int state;
+        if (active != null || Settings.getBooleanValue(context, Settings.ENABLE_WHITELIST)) {
+            state = Tile.STATE_ACTIVE;
+        } else {
+            state = Tile.STATE_INACTIVE;
         }
 
+        tile.setState(state);
+        tile.setLabel(active != null ? active.name : getString(R.string.Tile_label));
+        tile.updateTile();
+    }
+
 }
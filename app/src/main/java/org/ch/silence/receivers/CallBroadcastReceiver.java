@@ -19,88 +19,158 @@ package org.ch.silence.receivers;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
 import android.telephony.TelephonyManager;
-import android.util.Log;
 
 import com.android.internal.telephony.ITelephony;
-import org.ch.silence.R;
-import org.ch.silence.utils.ContactsAccessHelper;
-import org.ch.silence.utils.DatabaseAccessHelper;
+import org.ch.silence.utils.CallDecidedEvent;
+import org.ch.silence.utils.CallDecision;
+import org.ch.silence.utils.CallFilter;
+import org.ch.silence.utils.CallStateCache;
+import org.ch.silence.utils.CorrespondentsIndex;
+import org.ch.silence.utils.JournalWriter;
+import org.ch.silence.utils.MemoryAccounting;
+import org.ch.silence.utils.MemoryAccounts;
 import org.ch.silence.utils.Permissions;
-import org.ch.silence.utils.Settings;
+import org.ch.silence.utils.ShadowEngine;
+import org.ch.silence.utils.SubscriptionHelper;
 
 import java.lang.reflect.Method;
-import java.util.List;
 
 /**
  * BroadcastReceiver for calls catching
  */
 public class CallBroadcastReceiver extends BroadcastReceiver {
-    private static final String TAG = CallBroadcastReceiver.class.getName();
+    private static final CallDecision ALLOW = new CallDecision(
+            CallDecision.ACTION_ALLOW, CallDecision.REASON_DEFAULT);
 
-    @Override
-    public void onReceive(final Context context, Intent intent) {
-        if (!Permissions.isGranted(context, Permissions.READ_PHONE_STATE) ||
-                !Permissions.isGranted(context, Permissions.CALL_PHONE)) {
-            return;
-        }
+    // receiver instance is created per broadcast, so the cache is static
+    private static final CallStateCache callStateCache = new CallStateCache();
 
-        // get telephony service
-        TelephonyManager telephony = (TelephonyManager)
-                context.getSystemService(Context.TELEPHONY_SERVICE);
-        if (telephony.getCallState() != TelephonyManager.CALL_STATE_RINGING) {
-            return;
+    static {
+        MemoryAccounting.register("call_states", MemoryAccounts.PRIORITY_CACHE, callStateCache);
+    }
+
+    /**
+     * Actions of the broadcast handling depending on the context
+     */
+    public interface Handler {
+        int getSubscriptionId();
+
+        CallDecision decide(int subscriptionId, @Nullable String number);
+
+        // the decision is made
+        void onDecided(@Nullable String number);
+
+        // the call is over
+        void onIdle();
+    }
+
+    // Handler of the broadcasts from the system
+    private static class ContextHandler implements Handler {
+        private final Context context;
+        private final Intent intent;
+
+        ContextHandler(Context context, Intent intent) {
+            this.context = context;
+            this.intent = intent;
         }
 
-        // get incoming call number
-        String number = intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER);
+        @Override
+        public int getSubscriptionId() {
+            return SubscriptionHelper.getSubscriptionId(intent);
+        }
 
-        // private number detected
-        if (ContactsAccessHelper.isPrivatePhoneNumber(number)) {
-            // if block private numbers
-            if (Settings.getBooleanValue(context, Settings.ENABLE_WHITELIST)) {
-                String name = context.getString(R.string.Private_number);
-                // break call and notify user
-                breakCall(context);
-            }
-            return;
+        @Override
+        public CallDecision decide(int subscriptionId, @Nullable String number) {
+            return CallFilter.decide(context, subscriptionId, number);
         }
 
-        // normalize number
-        number = ContactsAccessHelper.normalizePhoneNumber(number);
-        if (number.isEmpty()) {
-            Log.w(TAG, "Received call address is empty");
-            return;
+        @Override
+        public void onDecided(@Nullable String number) {
+            // the new matcher is compared with the SQL one in background
+            ShadowEngine.submit(context, number);
         }
 
-        // get contacts linked to the current number
-        List<DatabaseAccessHelper.Contact> contacts = getContacts(context, number);
-        if (contacts == null) {
-            return;
+        @Override
+        public void onIdle() {
+            // the call is over - pull it from the calls log
+            CorrespondentsIndex.getInstance(context).ingestAsync();
+            MemoryAccounting.checkBudget(context);
         }
+    }
 
-        // if contact is from the white list
-        DatabaseAccessHelper.Contact contact = findContactByType(contacts, DatabaseAccessHelper.Contact.TYPE_WHITE_LIST);
-        if (contact != null) {
+    @Override
+    public void onReceive(final Context context, Intent intent) {
+        if (!Permissions.isGranted(context, Permissions.READ_PHONE_STATE) ||
+                !Permissions.isGranted(context, Permissions.CALL_PHONE)) {
             return;
         }
 
-        // get name of contact
-        String name = (contacts.size() > 0 ? contacts.get(0).name : null);
+        // get call state and incoming call number
+        String state = getCallState(context, intent);
+        String number = intent.getStringExtra(TelephonyManager.EXTRA_INCOMING_NUMBER);
 
-        boolean abort = false;
+        CallDecision decision = handle(new ContextHandler(context, intent),
+                callStateCache, state, number, SystemClock.elapsedRealtime());
 
-        // if block numbers that are not in the contact list
-        if (Settings.getBooleanValue(context, Settings.ENABLE_WHITELIST) &&
-                Permissions.isGranted(context, Permissions.READ_CONTACTS)) {
-            ContactsAccessHelper db = ContactsAccessHelper.getInstance(context);
-            if (db.getContact(context, number) != null) {
-                return;
-            }
+        if (decision.isBlocked()) {
+            // break call and notify user
             breakCall(context);
+            // the process mustn't be killed before the call is journaled
+            JournalWriter.holdUntilCommitted(this, CallDecidedEvent.BUS);
+        }
+    }
+
+    /**
+     * Decides about the call in the state. The decision is made once per call
+     * and state, the duplicates of the broadcast are replayed from the cache.
+     */
+    public static CallDecision handle(Handler handler, CallStateCache cache,
+                                      String state, @Nullable String number, long now) {
+        CallDecision decision = cache.get(number, state, now);
+        if (decision == null) {
+            if (TelephonyManager.EXTRA_STATE_RINGING.equals(state)) {
+                long start = System.nanoTime();
+                long allocations = MemoryAccounting.getThreadAllocCount();
+                long allocated = MemoryAccounting.getThreadAllocSize();
+                int subscriptionId = handler.getSubscriptionId();
+                decision = handler.decide(subscriptionId, number);
+                MemoryAccounting.recordDecision(allocations, allocated);
+                // listeners are called in background
+                CallDecidedEvent.BUS.publish(new CallDecidedEvent(System.currentTimeMillis(), number,
+                        subscriptionId, decision, System.nanoTime() - start));
+                handler.onDecided(number);
+            } else {
+                decision = ALLOW;
+                if (TelephonyManager.EXTRA_STATE_IDLE.equals(state)) {
+                    handler.onIdle();
+                }
+            }
+            cache.put(number, state, decision, now);
         }
+        return decision;
+    }
 
+    // Returns call state from the broadcast or (if it isn't there) from the telephony service
+    private String getCallState(Context context, Intent intent) {
+        String state = intent.getStringExtra(TelephonyManager.EXTRA_STATE);
+        if (state == null) {
+            TelephonyManager telephony = (TelephonyManager)
+                    context.getSystemService(Context.TELEPHONY_SERVICE);
+            switch (telephony.getCallState()) {
+                case TelephonyManager.CALL_STATE_RINGING:
+                    state = TelephonyManager.EXTRA_STATE_RINGING;
+                    break;
+                case TelephonyManager.CALL_STATE_OFFHOOK:
+                    state = TelephonyManager.EXTRA_STATE_OFFHOOK;
+                    break;
+                default:
+                    state = TelephonyManager.EXTRA_STATE_IDLE;
+            }
+        }
+        return state;
     }
 
     // Ends phone call
@@ -122,23 +192,4 @@ public class CallBroadcastReceiver extends BroadcastReceiver {
             e.printStackTrace();
         }
     }
-
-    // Finds contact by type
-    private DatabaseAccessHelper.Contact findContactByType(List<DatabaseAccessHelper.Contact> contacts, int contactType) {
-        for (DatabaseAccessHelper.Contact contact : contacts) {
-            if (contact.type == contactType) {
-                return contact;
-            }
-        }
-        return null;
-    }
-
-    // Finds contacts by number
-    @Nullable
-    private List<DatabaseAccessHelper.Contact> getContacts(Context context, String number) {
-        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
-        return (db == null ? null : db.getContacts(number, false));
-    }
-
-
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.receivers;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.provider.Telephony;
+import android.telephony.SmsMessage;
+import android.util.Log;
+
+import org.ch.silence.utils.CallDecision;
+import org.ch.silence.utils.JournalWriter;
+import org.ch.silence.utils.Permissions;
+import org.ch.silence.utils.SmsAssembler;
+import org.ch.silence.utils.SmsDecidedEvent;
+import org.ch.silence.utils.SmsFilter;
+import org.ch.silence.utils.SubscriptionHelper;
+
+/**
+ * BroadcastReceiver for SMS catching
+ */
+public class SmsBroadcastReceiver extends BroadcastReceiver {
+    private static final String TAG = SmsBroadcastReceiver.class.getName();
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Telephony.Sms.Intents.SMS_RECEIVED_ACTION.equals(intent.getAction()) ||
+                !Permissions.isGranted(context, Permissions.RECEIVE_SMS)) {
+            return;
+        }
+
+        // the parts of the multipart messages come together
+        SmsMessage[] parts = getMessages(intent);
+        if (parts == null) {
+            return;
+        }
+        SmsAssembler assembler = new SmsAssembler();
+        for (SmsMessage part : parts) {
+            if (part != null && !assembler.add(part.getOriginatingAddress(),
+                    part.getMessageBody(), part.getTimestampMillis())) {
+                Log.w(TAG, "Too many senders in one broadcast");
+            }
+        }
+
+        // since android 4.4 only the default SMS application can drop the messages
+        boolean droppable = (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT);
+        int subscriptionId = SubscriptionHelper.getSubscriptionId(intent);
+        boolean blocked = false;
+        for (SmsAssembler.Message message : assembler.getMessages()) {
+            long start = System.nanoTime();
+            CallDecision decision = SmsFilter.decide(context, subscriptionId,
+                    message.address, message.body);
+            // listeners are called in background
+            SmsDecidedEvent.BUS.publish(new SmsDecidedEvent(message.timestamp, message.address,
+                    message.body, subscriptionId, decision, System.nanoTime() - start,
+                    droppable && decision.isBlocked()));
+            blocked |= decision.isBlocked();
+        }
+
+        if (blocked && droppable) {
+            abortBroadcast();
+            // the process mustn't be killed before the messages are journaled
+            JournalWriter.holdUntilCommitted(this, SmsDecidedEvent.BUS);
+        }
+    }
+
+    // Returns the parts of the messages from the broadcast
+    private SmsMessage[] getMessages(Intent intent) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return getMessagesKitKat(intent);
+        }
+        Bundle extras = intent.getExtras();
+        Object[] pdus = (extras == null ? null : (Object[]) extras.get("pdus"));
+        if (pdus == null) {
+            return null;
+        }
+        SmsMessage[] messages = new SmsMessage[pdus.length];
+        for (int i = 0; i < pdus.length; i++) {
+            messages[i] = SmsMessage.createFromPdu((byte[]) pdus[i]);
+        }
+        return messages;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private SmsMessage[] getMessagesKitKat(Intent intent) {
+        return Telephony.Sms.Intents.getMessagesFromIntent(intent);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Changes of the numbers of a black/white list contact.
+ * The text form has one change per line:
+ * <pre>
+ * # comment
+ * + equals +79051234567
+ * - starts +7800
+ * </pre>
+ * where the type is one of equals, contains, starts, ends, pattern and range.
+ */
+public class BlockListDelta {
+    private static final String TAG = BlockListDelta.class.getName();
+    // names of the rule types indexed by ContactNumber.TYPE_* values
+    private static final String[] TYPE_NAMES = {"equals", "contains", "starts", "ends", "pattern", "range"};
+    private static final char ADD = '+';
+    private static final char REMOVE = '-';
+
+    private final List<Entry> added;
+    private final List<Entry> removed;
+
+    public BlockListDelta(@NonNull List<Entry> added, @NonNull List<Entry> removed) {
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * Rule keyed by its type and number
+     */
+    public static class Entry {
+        public final int type;
+        public final String number;
+
+        public Entry(int type, @NonNull String number) {
+            this.type = type;
+            this.number = number;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return type == entry.type && number.equals(entry.number);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type + number.hashCode();
+        }
+    }
+
+    public List<Entry> getAdded() {
+        return added;
+    }
+
+    public List<Entry> getRemoved() {
+        return removed;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    public int size() {
+        return added.size() + removed.size();
+    }
+
+    /**
+     * Returns the changes turning the old rules to the new ones
+     */
+    public static BlockListDelta diff(@NonNull Collection<Entry> from, @NonNull Collection<Entry> to) {
+        Set<Entry> fromSet = new HashSet<>(from);
+        Set<Entry> toSet = new HashSet<>(to);
+        List<Entry> added = new ArrayList<>();
+        for (Entry entry : toSet) {
+            if (!fromSet.contains(entry)) {
+                added.add(entry);
+            }
+        }
+        List<Entry> removed = new ArrayList<>();
+        for (Entry entry : fromSet) {
+            if (!toSet.contains(entry)) {
+                removed.add(entry);
+            }
+        }
+        return new BlockListDelta(added, removed);
+    }
+
+    /**
+     * Reads the delta from the text form
+     */
+    public static BlockListDelta read(@NonNull Reader reader) throws IOException {
+        List<Entry> added = new ArrayList<>();
+        List<Entry> removed = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') {
+                continue;
+            }
+            Entry entry = parseEntry(line.substring(1).trim());
+            if (entry == null || (line.charAt(0) != ADD && line.charAt(0) != REMOVE)) {
+                throw new IOException("Invalid delta line " + lineNumber + ": " + line);
+            }
+            (line.charAt(0) == ADD ? added : removed).add(entry);
+        }
+        return new BlockListDelta(added, removed);
+    }
+
+    /**
+     * Writes the delta in the text form
+     */
+    public void write(@NonNull Writer writer) throws IOException {
+        for (Entry entry : removed) {
+            writeEntry(writer, REMOVE, entry);
+        }
+        for (Entry entry : added) {
+            writeEntry(writer, ADD, entry);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Applies the delta file to the numbers of the contact and patches the compiled profiles.
+     * Returns the count of the changed rules or -1 on error.
+     */
+    public static int apply(Context context, long contactId, @NonNull File file) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null) {
+            return -1;
+        }
+        BlockListDelta delta;
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            delta = read(reader);
+        } catch (IOException e) {
+            Log.w(TAG, "Delta file can't be read", e);
+            return -1;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        BlockListDelta applied = db.applyContactNumbersDelta(contactId, delta);
+        if (applied == null) {
+            return -1;
+        }
+        if (!applied.isEmpty()) {
+            Profiles.patch(context, contactId, applied);
+        }
+        return applied.size();
+    }
+
+    private static void writeEntry(Writer writer, char operation, Entry entry) throws IOException {
+        writer.write(operation);
+        writer.write(' ');
+        writer.write(TYPE_NAMES[entry.type]);
+        writer.write(' ');
+        writer.write(entry.number);
+        writer.write('\n');
+    }
+
+    @Nullable
+    private static Entry parseEntry(String text) {
+        int i = text.indexOf(' ');
+        if (i < 0) {
+            return null;
+        }
+        String name = text.substring(0, i);
+        String number = text.substring(i + 1).trim();
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            if (TYPE_NAMES[type].equals(name)) {
+                return (number.isEmpty() ? null : new Entry(type, number));
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Event of the decision made about the incoming call
+ */
+public class CallDecidedEvent {
+    // bus of the events, listeners are called in the background thread
+    public static final EventBus<CallDecidedEvent> BUS =
+            new EventBus<>(Executors.newSingleThreadExecutor());
+
+    // wall clock time of the call
+    public final long time;
+    // number as it was received (null if it is private)
+    @Nullable
+    public final String number;
+    // id of the SIM subscription the call came to
+    public final int subscriptionId;
+    // action, reason and matched contact
+    @NonNull
+    public final CallDecision decision;
+    // time spent on the decision
+    public final long latencyNanos;
+
+    public CallDecidedEvent(long time, @Nullable String number, int subscriptionId,
+                            @NonNull CallDecision decision, long latencyNanos) {
+        this.time = time;
+        this.number = number;
+        this.subscriptionId = subscriptionId;
+        this.decision = decision;
+        this.latencyNanos = latencyNanos;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Decision made about the incoming call
+ */
+public class CallDecision {
+    // Actions
+    public static final int ACTION_ALLOW = 0;
+    public static final int ACTION_BLOCK = 1;
+
+    // Reasons
+    public static final int REASON_DEFAULT = 0;
+    public static final int REASON_PRIVATE = 1;
+    public static final int REASON_WHITE_LIST = 2;
+    public static final int REASON_BLACK_LIST = 3;
+    public static final int REASON_CONTACT = 4;
+    public static final int REASON_NOT_CONTACT = 5;
+    public static final int REASON_CORRESPONDENT = 6;
+    public static final int REASON_NOT_CORRESPONDENT = 7;
+    public static final int REASON_KEYWORD = 8;
+
+    public final int action;
+    public final int reason;
+    // contact which rule is matched (if it is known)
+    @Nullable
+    public final DatabaseAccessHelper.Contact contact;
+
+    public CallDecision(int action, int reason, @Nullable DatabaseAccessHelper.Contact contact) {
+        this.action = action;
+        this.reason = reason;
+        this.contact = contact;
+    }
+
+    public CallDecision(int action, int reason) {
+        this(action, reason, null);
+    }
+
+    public boolean isBlocked() {
+        return action == ACTION_BLOCK;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Rule engine deciding whether the caller (or the SMS sender) must be blocked
+ */
+public class CallFilter {
+    private static final String TAG = CallFilter.class.getName();
+    private static final CallDecision ALLOW = new CallDecision(
+            CallDecision.ACTION_ALLOW, CallDecision.REASON_DEFAULT);
+
+    // decisions about the repeating callers
+    static final DecisionCache decisionCache = new DecisionCache();
+
+    // data every decision depends on: the policies, profiles and lists
+    private static final int LISTS = Generations.mask(Generations.SETTINGS) |
+            Generations.mask(Generations.NUMBERS) | Generations.mask(Generations.CONTACTS);
+
+    // Data sources the decision was made by
+    private static class Dependencies {
+        int sources = LISTS;
+    }
+
+    /**
+     * Sources of the settings, lists and contacts the decision depends on.
+     * The rule engine itself doesn't touch the android services, so it can be
+     * driven by any implementation (e.g. the in-memory one on the JVM).
+     */
+    public interface Environment {
+        // policy of the SIM or null if it follows the global settings
+        @Nullable
+        SubscriptionPolicies.Policy getPolicy(int subscriptionId);
+
+        @Nullable
+        Profiles.Profile getProfile(long profileId);
+
+        @Nullable
+        Profiles.Profile getActiveProfile();
+
+        boolean getBooleanSetting(String name);
+
+        // the global black and white lists are available
+        boolean hasLists();
+
+        boolean isWhiteListed(String number);
+
+        // the correspondents index is loaded
+        boolean hasCorrespondents();
+
+        boolean isCorrespondent(String number);
+
+        // the contacts can be read
+        boolean hasContacts();
+
+        @Nullable
+        DatabaseAccessHelper.Contact getContact(String number);
+    }
+
+    /**
+     * Decides whether the call (or SMS) from the number to the SIM must be blocked
+     */
+    public static CallDecision decide(Context context, int subscriptionId, @Nullable String number) {
+        return decide(new ContextEnvironment(context), decisionCache, subscriptionId, number);
+    }
+
+    /**
+     * Decides whether the call (or SMS) from the number to the SIM must be blocked,
+     * using the passed sources and the cache of the decisions
+     */
+    public static CallDecision decide(Environment environment, DecisionCache cache,
+                                      int subscriptionId, @Nullable String number) {
+        // get policy of the ringing SIM (if it is null - global settings are used)
+        SubscriptionPolicies.Policy policy = environment.getPolicy(subscriptionId);
+
+        // get profile (if it is null - whitelist mode with all lists is used)
+        Profiles.Profile profile;
+        boolean whitelist;
+        if (policy != null) {
+            profile = environment.getProfile(policy.profileId);
+            whitelist = policy.whitelist;
+        } else {
+            profile = environment.getActiveProfile();
+            whitelist = environment.getBooleanSetting(Settings.ENABLE_WHITELIST);
+        }
+
+        // private number detected
+        if (ContactsAccessHelper.isPrivatePhoneNumber(number)) {
+            // if block private numbers
+            if (profile != null ? profile.blockPrivate : whitelist) {
+                return new CallDecision(CallDecision.ACTION_BLOCK, CallDecision.REASON_PRIVATE);
+            }
+            return ALLOW;
+        }
+
+        // normalize number
+        number = ContactsAccessHelper.normalizePhoneNumber(number);
+        if (number.isEmpty()) {
+            Log.w(TAG, "Received address is empty");
+            return ALLOW;
+        }
+
+        // the caller may be decided already
+        CallDecision decision = cache.get(subscriptionId, number);
+        if (decision == null) {
+            // the generation is taken before the data are read
+            long generation = Generations.current();
+            Dependencies dependencies = new Dependencies();
+            decision = decide(environment, number, profile, whitelist, dependencies);
+            // the decision isn't cached if any data were changed meanwhile
+            if (Generations.current() == generation) {
+                cache.put(subscriptionId, number, decision, dependencies.sources,
+                        Generations.current(dependencies.sources));
+            }
+        } else {
+            Metrics.increment(Metrics.DECISION_CACHE_HITS);
+        }
+
+        return decision;
+    }
+
+    // Decides whether the call from the normalized number must be blocked
+    private static CallDecision decide(Environment environment, String number,
+                                       @Nullable Profiles.Profile profile, boolean whitelist,
+                                       Dependencies dependencies) {
+        if (profile != null) {
+            // get contacts of the profile linked to the current number
+            List<DatabaseAccessHelper.Contact> contacts = profile.matcher.match(number);
+
+            // if contact is from the white list
+            DatabaseAccessHelper.Contact contact = findContactByType(contacts, DatabaseAccessHelper.Contact.TYPE_WHITE_LIST);
+            if (contact != null) {
+                return new CallDecision(CallDecision.ACTION_ALLOW, CallDecision.REASON_WHITE_LIST, contact);
+            }
+
+            // profile blocks the numbers from its black list
+            if (!contacts.isEmpty()) {
+                return new CallDecision(CallDecision.ACTION_BLOCK, CallDecision.REASON_BLACK_LIST, contacts.get(0));
+            }
+        } else {
+            if (!environment.hasLists()) {
+                return ALLOW;
+            }
+
+            // if number is from the white list
+            if (environment.isWhiteListed(number)) {
+                return new CallDecision(CallDecision.ACTION_ALLOW, CallDecision.REASON_WHITE_LIST);
+            }
+        }
+
+        // if block numbers we didn't talk with
+        boolean blockNotCorrespondents = false;
+        if (environment.getBooleanSetting(Settings.BLOCK_NOT_CORRESPONDENTS)) {
+            dependencies.sources |= Generations.mask(Generations.CORRESPONDENTS);
+            if (environment.hasCorrespondents()) {
+                if (environment.isCorrespondent(number)) {
+                    return new CallDecision(CallDecision.ACTION_ALLOW, CallDecision.REASON_CORRESPONDENT);
+                }
+                blockNotCorrespondents = true;
+            }
+        }
+
+        // if block numbers that are not in the contact list
+        boolean blockNotContacts = (profile != null ? profile.blockNotContacts : whitelist);
+        if (blockNotContacts || blockNotCorrespondents) {
+            dependencies.sources |= Generations.mask(Generations.CONTACTS_PROVIDER);
+        }
+        if ((blockNotContacts || blockNotCorrespondents) && environment.hasContacts()) {
+            DatabaseAccessHelper.Contact contact = environment.getContact(number);
+            if (contact != null) {
+                return new CallDecision(CallDecision.ACTION_ALLOW, CallDecision.REASON_CONTACT, contact);
+            }
+            return new CallDecision(CallDecision.ACTION_BLOCK, (blockNotContacts ?
+                    CallDecision.REASON_NOT_CONTACT : CallDecision.REASON_NOT_CORRESPONDENT));
+        }
+
+        if (blockNotCorrespondents) {
+            return new CallDecision(CallDecision.ACTION_BLOCK, CallDecision.REASON_NOT_CORRESPONDENT);
+        }
+
+        return ALLOW;
+    }
+
+    // Environment of the application
+    private static class ContextEnvironment implements Environment {
+        private final Context context;
+
+        ContextEnvironment(Context context) {
+            this.context = context;
+        }
+
+        @Nullable
+        @Override
+        public SubscriptionPolicies.Policy getPolicy(int subscriptionId) {
+            return SubscriptionPolicies.get(context, subscriptionId);
+        }
+
+        @Nullable
+        @Override
+        public Profiles.Profile getProfile(long profileId) {
+            return Profiles.get(context, profileId);
+        }
+
+        @Nullable
+        @Override
+        public Profiles.Profile getActiveProfile() {
+            return Profiles.getActive(context);
+        }
+
+        @Override
+        public boolean getBooleanSetting(String name) {
+            return Settings.getBooleanValue(context, name);
+        }
+
+        @Override
+        public boolean hasLists() {
+            return DatabaseAccessHelper.getInstance(context) != null;
+        }
+
+        @Override
+        public boolean isWhiteListed(String number) {
+            DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+            return db != null && db.isWhiteListed(number);
+        }
+
+        @Override
+        public boolean hasCorrespondents() {
+            return CorrespondentsIndex.getInstance(context).isAvailable();
+        }
+
+        @Override
+        public boolean isCorrespondent(String number) {
+            return CorrespondentsIndex.getInstance(context).contains(number);
+        }
+
+        @Override
+        public boolean hasContacts() {
+            if (!Permissions.isGranted(context, Permissions.READ_CONTACTS)) {
+                return false;
+            }
+            // the permission may be granted after the warming up
+            ContactsAccessHelper.getInstance(context).observeChanges(context);
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public DatabaseAccessHelper.Contact getContact(String number) {
+            return ContactsAccessHelper.getInstance(context).getContact(context, number);
+        }
+    }
+
+    // Finds contact by type
+    private static DatabaseAccessHelper.Contact findContactByType(List<DatabaseAccessHelper.Contact> contacts, int contactType) {
+        for (DatabaseAccessHelper.Contact contact : contacts) {
+            if (contact.type == contactType) {
+                return contact;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short living cache of the call states broadcasts. PHONE_STATE is delivered
+ * several times per call (and some ROMs send each state twice), so the decision
+ * is made once per call and state and replayed for the duplicates.
+ */
+public class CallStateCache implements MemoryAccountable {
+    // Time to live of the records
+    static final long TTL = 5000;
+    // Size of the cache when the expired records are removed
+    private static final int PRUNE_SIZE = 16;
+
+    private final Map<String, Record> records = new ConcurrentHashMap<>();
+
+    private static class Record {
+        final long time;
+        final CallDecision decision;
+
+        Record(long time, CallDecision decision) {
+            this.time = time;
+            this.decision = decision;
+        }
+    }
+
+    /**
+     * Returns the decision made recently for the same number and state or null.
+     * The found duplicates are counted in the metrics.
+     */
+    @Nullable
+    public CallDecision get(@Nullable String number, @NonNull String state, long now) {
+        Record record = records.get(key(number, state));
+        if (record == null || now - record.time > TTL) {
+            return null;
+        }
+        Metrics.increment(Metrics.DUPLICATE_BROADCASTS);
+        return record.decision;
+    }
+
+    /**
+     * Saves the decision made for the number and state
+     */
+    public void put(@Nullable String number, @NonNull String state,
+                    @NonNull CallDecision decision, long now) {
+        if (records.size() >= PRUNE_SIZE) {
+            Iterator<Record> it = records.values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().time > TTL) {
+                    it.remove();
+                }
+            }
+        }
+        records.put(key(number, state), new Record(now, decision));
+    }
+
+    public int size() {
+        return records.size();
+    }
+
+    @Override
+    public int getEntriesCount() {
+        return records.size();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return records.size() * (MemorySizes.MAP_ENTRY + MemorySizes.NUMBER + 2 * MemorySizes.OBJECT);
+    }
+
+    /**
+     * Forgets the broadcasts, so the duplicates of them will be decided again
+     */
+    @Override
+    public long trim() {
+        long bytes = getRetainedBytes();
+        records.clear();
+        return bytes;
+    }
+
+    @Override
+    public void restore() {
+        // is refilled by the broadcasts
+    }
+
+    private static String key(@Nullable String number, String state) {
+        return state + ':' + number;
+    }
+}
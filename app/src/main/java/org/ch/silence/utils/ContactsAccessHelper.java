@@ -18,25 +18,35 @@ package org.ch.silence.utils;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.CallLog;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Contacts;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.telephony.TelephonyManager;
+import android.util.Log;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.regex.Pattern;
 
 /**
  * Contacts/SMS/Calls list access helper
  */
 public class ContactsAccessHelper {
+    private static final String TAG = ContactsAccessHelper.class.getName();
     private static volatile ContactsAccessHelper sInstance = null;
     private ContentResolver contentResolver = null;
+    private volatile boolean observing = false;
 
     private ContactsAccessHelper(Context context) {
         contentResolver = context.getApplicationContext().getContentResolver();
@@ -98,6 +108,46 @@ public class ContactsAccessHelper {
         return getContact(number);
     }
 
+    /**
+     * Establishes connection to the contacts provider and resolves
+     * canonicalizer of the numbers, so the first lookup won't pay for it
+     */
+    public void preload(Context context) {
+        getCanonicalizer(context);
+        getContact(context, "0");
+        observeChanges(context);
+    }
+
+    /**
+     * Starts observing of the contacts changes to invalidate the data depending on them
+     * (if the contacts can be read). Is cheap once the observing is started.
+     */
+    public void observeChanges(Context context) {
+        if (!observing) {
+            registerObserver(context);
+        }
+    }
+
+    private synchronized void registerObserver(Context context) {
+        if (observing || !Permissions.isGranted(context, Permissions.READ_CONTACTS)) {
+            return;
+        }
+        try {
+            contentResolver.registerContentObserver(Contacts.CONTENT_URI, true,
+                    new ContentObserver(new Handler(Looper.getMainLooper())) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            Generations.bump(Generations.CONTACTS_PROVIDER);
+                        }
+                    });
+            observing = true;
+            // the contacts might be changed while they weren't observed
+            Generations.bump(Generations.CONTACTS_PROVIDER);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Contacts changes can't be observed", e);
+        }
+    }
+
     // Contact's cursor wrapper
     private class ContactCursorWrapper extends CursorWrapper implements DatabaseAccessHelper.ContactSource {
         private final int ID;
@@ -116,28 +166,44 @@ public class ContactsAccessHelper {
         }
 
         DatabaseAccessHelper.Contact getContact(boolean withNumbers) {
-            long id = getLong(ID);
+            final long id = getLong(ID);
             String name = getString(NAME);
-            List<DatabaseAccessHelper.ContactNumber> numbers = new LinkedList<>();
+            List<DatabaseAccessHelper.ContactNumber> numbers;
             if (withNumbers) {
-                ContactNumberCursorWrapper cursor = getContactNumbers(id);
-                if (cursor != null) {
-                    do {
-                        // normalize the phone number (remove spaces and brackets)
-                        String number = normalizePhoneNumber(cursor.getNumber());
-                        // create and add contact number instance
-                        DatabaseAccessHelper.ContactNumber contactNumber =
-                                new DatabaseAccessHelper.ContactNumber(cursor.getPosition(), number, id);
-                        numbers.add(contactNumber);
-                    } while (cursor.moveToNext());
-                    cursor.close();
-                }
+                numbers = new DatabaseAccessHelper.LazyNumberList() {
+                    @Override
+                    List<DatabaseAccessHelper.ContactNumber> load() {
+                        return getNumbers(id);
+                    }
+                };
+            } else {
+                numbers = Collections.emptyList();
             }
 
             return new DatabaseAccessHelper.Contact(id, name, 0, numbers);
         }
     }
 
+    // Reads all numbers of specified contact
+    private List<DatabaseAccessHelper.ContactNumber> getNumbers(long contactId) {
+        ContactNumberCursorWrapper cursor = getContactNumbers(contactId);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        List<DatabaseAccessHelper.ContactNumber> numbers = new ArrayList<>(cursor.getCount());
+        do {
+            // normalize the phone number (remove spaces and brackets)
+            String number = normalizePhoneNumber(cursor.getNumber());
+            // create and add contact number instance
+            DatabaseAccessHelper.ContactNumber contactNumber =
+                    new DatabaseAccessHelper.ContactNumber(cursor.getPosition(), number, contactId);
+            numbers.add(contactNumber);
+        } while (cursor.moveToNext());
+        cursor.close();
+
+        return numbers;
+    }
+
     // Contact's number cursor wrapper
     private static class ContactNumberCursorWrapper extends CursorWrapper {
         private final int NUMBER;
@@ -167,6 +233,92 @@ public class ContactsAccessHelper {
         return (validate(cursor) ? new ContactNumberCursorWrapper(cursor) : null);
     }
 
+//--------------------------------------------------------------------------------
+
+    // Incoming and outgoing calls are the talks, missed and rejected ones are not
+    private static final String TALK_CALL_TYPES = CallLog.Calls.INCOMING_TYPE + ", " + CallLog.Calls.OUTGOING_TYPE;
+    // Provider of SMS has no public contract in old APIs
+    private static final Uri SMS_URI = Uri.parse("content://sms");
+    // is reset if the provider rejects the limit in the sort order
+    private static volatile boolean smsLimitAccepted = true;
+    private static final String SMS_ID = "_id";
+    private static final String SMS_ADDRESS = "address";
+    private static final String SMS_TYPE = "type";
+    private static final int SMS_TYPE_SENT = 2;
+
+    // Log records (calls or SMS) cursor wrapper
+    public static class LogCursorWrapper extends CursorWrapper {
+        private final int ID;
+        private final int NUMBER;
+
+        private LogCursorWrapper(Cursor cursor, String idColumn, String numberColumn) {
+            super(cursor);
+            cursor.moveToFirst();
+            ID = cursor.getColumnIndex(idColumn);
+            NUMBER = cursor.getColumnIndex(numberColumn);
+        }
+
+        public long getId() {
+            return getLong(ID);
+        }
+
+        public String getNumber() {
+            return getString(NUMBER);
+        }
+    }
+
+    /**
+     * Selects limited count of the calls log records of talks with id greater than passed.
+     * The limit is passed by the URI parameter, the provider rejects it in the sort order.
+     * The old providers ignore the parameter and return all the records.
+     */
+    @Nullable
+    public LogCursorWrapper getCallLog(Context context, long afterId, int limit) {
+        if (!Permissions.isGranted(context, Permissions.READ_CALL_LOG)) {
+            return null;
+        }
+        Uri uri = CallLog.Calls.CONTENT_URI.buildUpon()
+                .appendQueryParameter(CallLog.Calls.LIMIT_PARAM_KEY, String.valueOf(limit))
+                .build();
+        Cursor cursor = contentResolver.query(
+                uri,
+                new String[]{CallLog.Calls._ID, CallLog.Calls.NUMBER},
+                CallLog.Calls._ID + " > " + afterId + " AND " +
+                        CallLog.Calls.TYPE + " IN (" + TALK_CALL_TYPES + ")",
+                null,
+                CallLog.Calls._ID + " ASC");
+
+        return (validate(cursor) ? new LogCursorWrapper(cursor, CallLog.Calls._ID, CallLog.Calls.NUMBER) : null);
+    }
+
+    /**
+     * Selects limited count of the sent SMS records with id greater than passed.
+     * If the provider rejects the limit, all the records after the id are selected.
+     */
+    @Nullable
+    public LogCursorWrapper getSentSms(Context context, long afterId, int limit) {
+        if (!Permissions.isGranted(context, Permissions.READ_SMS)) {
+            return null;
+        }
+        String[] projection = new String[]{SMS_ID, SMS_ADDRESS};
+        String selection = SMS_ID + " > " + afterId + " AND " + SMS_TYPE + " = " + SMS_TYPE_SENT;
+        Cursor cursor = null;
+        if (smsLimitAccepted) {
+            try {
+                cursor = contentResolver.query(SMS_URI, projection, selection, null,
+                        SMS_ID + " ASC LIMIT " + limit);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "SMS provider rejects the limit", e);
+                smsLimitAccepted = false;
+            }
+        }
+        if (!smsLimitAccepted) {
+            cursor = contentResolver.query(SMS_URI, projection, selection, null, SMS_ID + " ASC");
+        }
+
+        return (validate(cursor) ? new LogCursorWrapper(cursor, SMS_ID, SMS_ADDRESS) : null);
+    }
+
 //--------------------------------------------------------------------------------
 
     // For the sake of performance we don't use comprehensive phone number pattern.
@@ -187,6 +339,47 @@ public class ContactsAccessHelper {
         return number;
     }
 
+    // Canonicalizer of the current region (is resolved once)
+    private static volatile PhoneNumberCanonicalizer canonicalizer = null;
+    private static volatile boolean canonicalizerResolved = false;
+
+    /**
+     * Returns canonicalizer of the phone numbers for the region of SIM/network/locale
+     */
+    @Nullable
+    public static PhoneNumberCanonicalizer getCanonicalizer(Context context) {
+        if (!canonicalizerResolved) {
+            synchronized (ContactsAccessHelper.class) {
+                if (!canonicalizerResolved) {
+                    TelephonyManager telephony = (TelephonyManager)
+                            context.getSystemService(Context.TELEPHONY_SERVICE);
+                    PhoneNumberCanonicalizer result = null;
+                    if (telephony != null) {
+                        result = PhoneNumberCanonicalizer.forRegion(telephony.getSimCountryIso());
+                        if (result == null) {
+                            result = PhoneNumberCanonicalizer.forRegion(telephony.getNetworkCountryIso());
+                        }
+                    }
+                    if (result == null) {
+                        result = PhoneNumberCanonicalizer.forRegion(Locale.getDefault().getCountry());
+                    }
+                    canonicalizer = result;
+                    canonicalizerResolved = true;
+                }
+            }
+        }
+        return canonicalizer;
+    }
+
+    /**
+     * Converts the normalized phone number to E.164 form
+     * (if the region is known), otherwise returns it as is.
+     */
+    public static String canonicalizePhoneNumber(@Nullable PhoneNumberCanonicalizer canonicalizer,
+                                                 @NonNull String number) {
+        return (canonicalizer == null ? number : canonicalizer.canonicalize(number));
+    }
+
     /**
      * Checks whether passed phone number is private
      */
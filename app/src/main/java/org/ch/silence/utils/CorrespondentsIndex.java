@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Set of the numbers we talked with (by calls or sent SMS). It is filled
+ * incrementally: every ingestion pulls only the calls log and SMS records
+ * added after the last ingested ones, and saves the new numbers to the
+ * database. The receiver checks the numbers against the in-memory set, or
+ * against the database if the set was released to save the memory.
+ */
+public class CorrespondentsIndex implements MemoryAccountable {
+    private static final String TAG = CorrespondentsIndex.class.getName();
+    private static final int BATCH_SIZE = 500;
+    private static volatile CorrespondentsIndex sInstance = null;
+
+    private final Context context;
+    private final Set<String> numbers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile boolean loaded = false;
+    // the numbers are looked up in the database
+    private volatile boolean released = false;
+    // guards the releasing and the reloading of the set
+    private final Object releaseLock = new Object();
+
+    private CorrespondentsIndex(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static CorrespondentsIndex getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (CorrespondentsIndex.class) {
+                if (sInstance == null) {
+                    sInstance = new CorrespondentsIndex(context);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns true if the index can be relied on, i.e. it's loaded and
+     * there is a permission to read the calls log
+     */
+    public boolean isAvailable() {
+        return loaded && Permissions.isGranted(context, Permissions.READ_CALL_LOG);
+    }
+
+    /**
+     * Checks whether we talked with the normalized number
+     */
+    public boolean contains(@NonNull String number) {
+        PhoneNumberCanonicalizer canonicalizer = ContactsAccessHelper.getCanonicalizer(context);
+        String canonical = ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer, number);
+        if (released) {
+            DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+            return db != null && db.isCorrespondent(canonical);
+        }
+        return numbers.contains(canonical);
+    }
+
+    public int size() {
+        return numbers.size();
+    }
+
+    @Override
+    public int getEntriesCount() {
+        return numbers.size();
+    }
+
+    @Override
+    public long getRetainedBytes() {
+        return numbers.size() * (MemorySizes.MAP_ENTRY + MemorySizes.NUMBER);
+    }
+
+    /**
+     * Releases the in-memory set, the numbers are looked up in the database since then
+     */
+    @Override
+    public long trim() {
+        synchronized (releaseLock) {
+            long bytes = getRetainedBytes();
+            released = true;
+            numbers.clear();
+            return bytes;
+        }
+    }
+
+    /**
+     * Reloads the released set from the database in background
+     */
+    @Override
+    public void restore() {
+        if (!released) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reload();
+                } catch (Exception e) {
+                    Log.w(TAG, "Reloading failed", e);
+                }
+            }
+        });
+    }
+
+    // Fills the released set with the saved numbers (runs in the executor, so
+    // the ingestion doesn't interleave with it)
+    private void reload() {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null || !released) {
+            return;
+        }
+        List<String> saved = db.getCorrespondents();
+        synchronized (releaseLock) {
+            // may be released again meanwhile
+            if (released) {
+                numbers.addAll(saved);
+                released = false;
+            }
+        }
+    }
+
+    /**
+     * Schedules ingestion of the new records in background
+     */
+    public void ingestAsync() {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ingest();
+                } catch (Exception e) {
+                    Log.w(TAG, "Ingestion failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the saved numbers (once) and ingests the new records of the calls log and SMS
+     */
+    public synchronized void ingest() {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null) {
+            return;
+        }
+        if (!loaded) {
+            if (!released) {
+                numbers.addAll(db.getCorrespondents());
+            }
+            loaded = true;
+        }
+        final ContactsAccessHelper contacts = ContactsAccessHelper.getInstance(context);
+        ingest(db, Settings.CALL_LOG_LAST_ID, new Source() {
+            @Override
+            public ContactsAccessHelper.LogCursorWrapper query(long afterId) {
+                return contacts.getCallLog(context, afterId, BATCH_SIZE);
+            }
+        });
+        ingest(db, Settings.SMS_LAST_ID, new Source() {
+            @Override
+            public ContactsAccessHelper.LogCursorWrapper query(long afterId) {
+                return contacts.getSentSms(context, afterId, BATCH_SIZE);
+            }
+        });
+    }
+
+    // Source of the log records
+    private interface Source {
+        @Nullable
+        ContactsAccessHelper.LogCursorWrapper query(long afterId);
+    }
+
+    // Pulls the records after the high-water mark by batches
+    private void ingest(DatabaseAccessHelper db, String lastIdName, Source source) {
+        PhoneNumberCanonicalizer canonicalizer = ContactsAccessHelper.getCanonicalizer(context);
+        long lastId = parseLong(Settings.getStringValue(context, lastIdName));
+        long savedId = lastId;
+        while (true) {
+            ContactsAccessHelper.LogCursorWrapper cursor = source.query(lastId);
+            if (cursor == null) {
+                return;
+            }
+            int count = cursor.getCount();
+            List<String> added = new ArrayList<>();
+            do {
+                lastId = Math.max(lastId, cursor.getId());
+                String number = cursor.getNumber();
+                if (ContactsAccessHelper.isPrivatePhoneNumber(number)) {
+                    continue;
+                }
+                number = ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer,
+                        ContactsAccessHelper.normalizePhoneNumber(number));
+                if (!number.isEmpty() && !(released ?
+                        db.isCorrespondent(number) : numbers.contains(number))) {
+                    added.add(number);
+                }
+            } while (cursor.moveToNext());
+            cursor.close();
+
+            // save the numbers before the mark, so the records won't be lost
+            if (!added.isEmpty() && db.addCorrespondents(added)) {
+                if (!released) {
+                    numbers.addAll(added);
+                }
+                Generations.bump(Generations.CORRESPONDENTS);
+            }
+            if (lastId != savedId && Settings.setStateValue(context, lastIdName, String.valueOf(lastId))) {
+                savedId = lastId;
+            }
+            if (count < BATCH_SIZE) {
+                return;
+            }
+        }
+    }
+
+    private static long parseLong(@Nullable String value) {
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return 0;
+    }
+}
@@ -21,12 +21,29 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseCorruptException;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-
-import java.util.LinkedList;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 
 
 /**
@@ -35,26 +52,91 @@ import java.util.List;
 public class DatabaseAccessHelper extends SQLiteOpenHelper {
     private static final String TAG = DatabaseAccessHelper.class.getName();
     public static final String DATABASE_NAME = "blacklist.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 11;
     private static volatile DatabaseAccessHelper sInstance = null;
+    // the last opening failed because the file is corrupted
+    private static volatile boolean openCorrupted = false;
+    // suffix of the damaged file moved aside on recreating
+    private static final String DAMAGED_SUFFIX = ".damaged";
+    private static final String[] FILE_SUFFIXES = {"", "-journal", "-wal", "-shm"};
+
+    // Results of the quick check
+    static final int CHECK_OK = 0;
+    static final int CHECK_CORRUPTED = 1;
+    // the database is locked, busy, the disk is full, etc.
+    static final int CHECK_UNKNOWN = 2;
 
     @Nullable
     public static DatabaseAccessHelper getInstance(Context context) {
         if (sInstance == null) {
             synchronized (DatabaseAccessHelper.class) {
                 if (sInstance == null) {
-                    if (Permissions.isGranted(context, Permissions.WRITE_EXTERNAL_STORAGE)) {
+                    // the database is in the internal storage, so no permissions are needed
+                    try {
                         sInstance = new DatabaseAccessHelper(context.getApplicationContext());
+                        openCorrupted = false;
+                    } catch (SQLiteDatabaseCorruptException e) {
+                        Log.w(TAG, "Database is corrupted", e);
+                        openCorrupted = true;
+                    } catch (SQLiteException e) {
+                        Log.w(TAG, "Database can't be opened", e);
                     }
                 }
             }
+            if (sInstance == null) {
+                DatabaseIntegrity.checkAsync(context);
+            }
         }
         return sInstance;
     }
 
+    /**
+     * Returns true if the last opening of the database failed because of the corruption
+     */
+    static boolean isOpenCorrupted() {
+        return openCorrupted;
+    }
+
+    /**
+     * Moves the database file aside and creates the empty one. Is used to recover
+     * from the corruption only. The replaced helper isn't closed, since the background
+     * threads and the receivers may still hold it: its connection keeps working on the
+     * moved file until the helper is collected.
+     */
+    @Nullable
+    static DatabaseAccessHelper recreate(Context context) {
+        synchronized (DatabaseAccessHelper.class) {
+            String path = context.getDatabasePath(DATABASE_NAME).getPath();
+            for (String suffix : FILE_SUFFIXES) {
+                File file = new File(path + suffix);
+                File damaged = new File(path + DAMAGED_SUFFIX + suffix);
+                // the previous damaged file is replaced
+                damaged.delete();
+                if (file.exists() && !file.renameTo(damaged)) {
+                    Log.w(TAG, "Database file can't be moved aside: " + file);
+                    return null;
+                }
+            }
+            try {
+                sInstance = new DatabaseAccessHelper(context.getApplicationContext());
+                openCorrupted = false;
+            } catch (SQLiteException e) {
+                Log.w(TAG, "Database can't be created", e);
+                return null;
+            }
+            return sInstance;
+        }
+    }
+
+
+    // numbers of equality rules are stored in canonical form
+    private final PhoneNumberCanonicalizer canonicalizer;
+    // the database file was created by this instance
+    private volatile boolean created = false;
 
     private DatabaseAccessHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        canonicalizer = ContactsAccessHelper.getCanonicalizer(context);
         // helper won't create the database file until we first open it
         SQLiteDatabase db = getWritableDatabase();
         // onConfigure isn't calling in android 2.3
@@ -63,20 +145,125 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        created = true;
         db.execSQL(JournalTable.Statement.CREATE);
         db.execSQL(ContactTable.Statement.CREATE);
         db.execSQL(ContactNumberTable.Statement.CREATE);
+        db.execSQL(ContactNumberTable.Statement.CREATE_INDEX_BY_CONTACT_ID);
         db.execSQL(SettingsTable.Statement.CREATE);
+        createProfileTables(db);
+        db.execSQL(CorrespondentTable.Statement.CREATE);
+        db.execSQL(KeywordTable.Statement.CREATE);
+        createRollupTables(db);
+        createJournalIndex(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int i, int i1) {
-        if (i != i1) {
-            db.execSQL("DROP TABLE IF EXISTS " + SettingsTable.NAME);
-            db.execSQL("DROP TABLE IF EXISTS " + ContactNumberTable.NAME);
-            db.execSQL("DROP TABLE IF EXISTS " + ContactTable.NAME);
-            db.execSQL("DROP TABLE IF EXISTS " + JournalTable.NAME);
-            onCreate(db);
+        // upgrade step by step to keep the users' lists
+        if (i < 2) {
+            createProfileTables(db);
+        }
+        if (i < 3) {
+            canonicalizeNumbers(db);
+        }
+        if (i < 4) {
+            db.execSQL(ContactNumberTable.Statement.ADD_RANGE_FROM);
+            db.execSQL(ContactNumberTable.Statement.ADD_RANGE_TO);
+        }
+        if (i < 5) {
+            db.execSQL(CorrespondentTable.Statement.CREATE);
+        }
+        if (i < 6) {
+            db.execSQL(ContactNumberTable.Statement.CREATE_INDEX_BY_CONTACT_ID);
+        }
+        if (i < 7) {
+            db.execSQL(KeywordTable.Statement.CREATE);
+        }
+        if (i < 8) {
+            createRollupTables(db);
+        }
+        if (i < 10) {
+            // since version 10 prefixes are counted by the canonical numbers
+            rebuildRollups(db);
+        }
+        if (i < 11) {
+            // since version 11 the suffixes of the numbers are indexed
+            dropJournalIndex(db);
+            createJournalIndex(db);
+            db.execSQL(JournalIndexTable.Statement.INSERT_ALL);
+        }
+    }
+
+    // Converts numbers of the equality rules to canonical form, returns count of changed ones
+    private int canonicalizeNumbers(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(ContactNumberTable.Statement.SELECT_BY_TYPE,
+                new String[]{String.valueOf(ContactNumber.TYPE_EQUALS)});
+        if (!validate(cursor)) {
+            return 0;
+        }
+        int count = 0;
+        ContactNumberCursorWrapper numbers = new ContactNumberCursorWrapper(cursor);
+        ContentValues values = new ContentValues();
+        do {
+            ContactNumber number = numbers.getNumber();
+            String canonical = ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer, number.number);
+            if (!canonical.equals(number.number)) {
+                values.put(ContactNumberTable.Column.NUMBER, canonical);
+                count += db.update(ContactNumberTable.NAME, values,
+                        ContactNumberTable.Column.ID + " = ? ",
+                        new String[]{String.valueOf(number.id)});
+            }
+        } while (numbers.moveToNext());
+        numbers.close();
+        return count;
+    }
+
+    // Recomputes the keys of the range rules bounds, returns count of changed ones
+    private int repairRangeKeys(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery(ContactNumberTable.Statement.SELECT_BY_TYPE,
+                new String[]{String.valueOf(ContactNumber.TYPE_RANGE)});
+        if (!validate(cursor)) {
+            return 0;
+        }
+        int count = 0;
+        int ID = cursor.getColumnIndex(ContactNumberTable.Column.ID);
+        int NUMBER = cursor.getColumnIndex(ContactNumberTable.Column.NUMBER);
+        int RANGE_FROM = cursor.getColumnIndex(ContactNumberTable.Column.RANGE_FROM);
+        int RANGE_TO = cursor.getColumnIndex(ContactNumberTable.Column.RANGE_TO);
+        cursor.moveToFirst();
+        do {
+            long[] range = NumberRangeIndex.parse(canonicalizer, cursor.getString(NUMBER));
+            long from = (cursor.isNull(RANGE_FROM) ? -1 : cursor.getLong(RANGE_FROM));
+            long to = (cursor.isNull(RANGE_TO) ? -1 : cursor.getLong(RANGE_TO));
+            if (range == null ? from >= 0 : (range[0] != from || range[1] != to)) {
+                ContentValues values = new ContentValues();
+                if (range == null) {
+                    values.putNull(ContactNumberTable.Column.RANGE_FROM);
+                    values.putNull(ContactNumberTable.Column.RANGE_TO);
+                } else {
+                    values.put(ContactNumberTable.Column.RANGE_FROM, range[0]);
+                    values.put(ContactNumberTable.Column.RANGE_TO, range[1]);
+                }
+                count += db.update(ContactNumberTable.NAME, values,
+                        ContactNumberTable.Column.ID + " = ? ",
+                        new String[]{String.valueOf(cursor.getLong(ID))});
+            }
+        } while (cursor.moveToNext());
+        cursor.close();
+        return count;
+    }
+
+    // Creates tables of profiles and fills them by the default ones
+    private void createProfileTables(SQLiteDatabase db) {
+        db.execSQL(ProfileTable.Statement.CREATE);
+        db.execSQL(ProfileContactTable.Statement.CREATE);
+        for (String[] profile : ProfileTable.DEFAULTS) {
+            ContentValues values = new ContentValues();
+            values.put(ProfileTable.Column.NAME, profile[0]);
+            values.put(ProfileTable.Column.BLOCK_PRIVATE, Integer.valueOf(profile[1]));
+            values.put(ProfileTable.Column.BLOCK_NOT_CONTACTS, Integer.valueOf(profile[2]));
+            db.insert(ProfileTable.NAME, null, values);
         }
     }
 
@@ -86,8 +273,72 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         db.execSQL("PRAGMA foreign_keys=ON");
     }
 
+    @Override
+    public synchronized void close() {
+        synchronized (statements) {
+            for (SQLiteStatement statement : statements.values()) {
+                statement.close();
+            }
+            statements.clear();
+        }
+        super.close();
+    }
+
 //----------------------------------------------------------------
 
+    // Compiled statements of the hot single value queries of the connection
+    private final Map<String, SQLiteStatement> statements = new HashMap<>();
+
+    // Returns compiled statement from cache or compiles it.
+    // Statement isn't thread safe so it must be used synchronized on itself.
+    private SQLiteStatement getStatement(String sql) {
+        synchronized (statements) {
+            SQLiteStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = getReadableDatabase().compileStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+    }
+
+    // Executes compiled statement returning a string value or null if there is no result
+    @Nullable
+    private String simpleQueryForString(String sql, String... args) {
+        SQLiteStatement statement = getStatement(sql);
+        synchronized (statement) {
+            try {
+                bind(statement, args);
+                return statement.simpleQueryForString();
+            } catch (SQLiteDoneException e) {
+                return null;
+            } finally {
+                statement.clearBindings();
+            }
+        }
+    }
+
+    // Executes compiled statement returning a long value or default value if there is no result
+    private long simpleQueryForLong(long defaultValue, String sql, String... args) {
+        SQLiteStatement statement = getStatement(sql);
+        synchronized (statement) {
+            try {
+                bind(statement, args);
+                return statement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return defaultValue;
+            } finally {
+                statement.clearBindings();
+            }
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            statement.bindString(i + 1, args[i]);
+        }
+    }
+
 
 
     // Closes cursor if it is empty and returns false
@@ -124,7 +375,484 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             Column.NUMBER + " TEXT, " +
                             Column.TEXT + " TEXT " +
                             ")";
+
+            static final String SELECT_FOR_ROLLUP =
+                    "SELECT " + Column.TIME + ", " + Column.NUMBER + ", " + Column.TEXT +
+                            " FROM " + JournalTable.NAME;
+        }
+    }
+
+    // Record of the blocked call (text is null) or SMS
+    public static class JournalRecord {
+        public final long time;
+        public final String caller;
+        public final String number;
+        public final String text;
+
+        public JournalRecord(long time, @NonNull String caller,
+                             @Nullable String number, @Nullable String text) {
+            this.time = time;
+            this.caller = caller;
+            this.number = number;
+            this.text = text;
+        }
+    }
+
+    // Adds the record of the blocked call or SMS to the journal
+    public boolean addJournalRecord(long time, @NonNull String caller,
+                                    @Nullable String number, @Nullable String text) {
+        return addJournalRecords(Collections.singletonList(
+                new JournalRecord(time, caller, number, text)));
+    }
+
+    // Adds the records to the journal and counts them in the rollups in one transaction
+    public boolean addJournalRecords(@NonNull List<JournalRecord> records) {
+        if (records.isEmpty()) {
+            return true;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        JournalRollup rollup = new JournalRollup(TimeZone.getDefault(), canonicalizer);
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (JournalRecord record : records) {
+                values.put(JournalTable.Column.TIME, record.time);
+                values.put(JournalTable.Column.CALLER, record.caller);
+                values.put(JournalTable.Column.NUMBER, record.number);
+                values.put(JournalTable.Column.TEXT, record.text);
+                if (db.insert(JournalTable.NAME, null, values) < 0) {
+                    return false;
+                }
+                rollup.add(record.time, record.number, record.text != null);
+            }
+            addRollup(db, rollup);
+            // hourly rollup is kept for the last days only
+            long expired = JournalRollup.getHour(System.currentTimeMillis()) -
+                    HourlyRollupTable.RETENTION;
+            db.delete(HourlyRollupTable.NAME, HourlyRollupTable.Column.HOUR + " < ? ",
+                    new String[]{String.valueOf(expired)});
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Journal records aren't added", e);
+            return false;
+        } finally {
+            db.endTransaction();
+        }
+        return true;
+    }
+
+//----------------------------------------------------------------
+
+    // Full-text index of the journal, rows are bound to the journal ones by docid
+    private static class JournalIndexTable {
+        static final String NAME = "journal_index";
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE VIRTUAL TABLE " + JournalIndexTable.NAME +
+                            " USING %s(" +
+                            JournalTable.Column.CALLER + ", " +
+                            JournalTable.Column.NUMBER + ", " +
+                            JournalTable.Column.TEXT +
+                            ")";
+
+            static final String INSERT_ALL =
+                    "INSERT INTO " + JournalIndexTable.NAME +
+                            "(docid, " +
+                            JournalTable.Column.CALLER + ", " +
+                            JournalTable.Column.NUMBER + ", " +
+                            JournalTable.Column.TEXT + ") " +
+                            " SELECT " +
+                            JournalTable.Column.ID + ", " +
+                            JournalTable.Column.CALLER + ", " +
+                            JournalSearch.indexedNumber(JournalTable.Column.NUMBER) + ", " +
+                            JournalTable.Column.TEXT +
+                            " FROM " + JournalTable.NAME;
+
+            static final String DROP =
+                    "DROP TABLE IF EXISTS " + JournalIndexTable.NAME;
+
+            static final String[] DROP_TRIGGERS = {
+                    "DROP TRIGGER IF EXISTS " + JournalIndexTable.NAME + "_insert",
+                    "DROP TRIGGER IF EXISTS " + JournalIndexTable.NAME + "_update",
+                    "DROP TRIGGER IF EXISTS " + JournalIndexTable.NAME + "_delete"
+            };
+
+            // triggers keep the index in sync with the journal
+            static final String CREATE_INSERT_TRIGGER =
+                    "CREATE TRIGGER " + JournalIndexTable.NAME + "_insert" +
+                            " AFTER INSERT ON " + JournalTable.NAME +
+                            " BEGIN " +
+                            " INSERT INTO " + JournalIndexTable.NAME +
+                            "(docid, " +
+                            JournalTable.Column.CALLER + ", " +
+                            JournalTable.Column.NUMBER + ", " +
+                            JournalTable.Column.TEXT + ") " +
+                            " VALUES (new." + JournalTable.Column.ID +
+                            ", new." + JournalTable.Column.CALLER +
+                            ", " + JournalSearch.indexedNumber("new." + JournalTable.Column.NUMBER) +
+                            ", new." + JournalTable.Column.TEXT + "); " +
+                            " END";
+
+            static final String CREATE_UPDATE_TRIGGER =
+                    "CREATE TRIGGER " + JournalIndexTable.NAME + "_update" +
+                            " AFTER UPDATE ON " + JournalTable.NAME +
+                            " BEGIN " +
+                            " DELETE FROM " + JournalIndexTable.NAME +
+                            " WHERE docid = old." + JournalTable.Column.ID + "; " +
+                            " INSERT INTO " + JournalIndexTable.NAME +
+                            "(docid, " +
+                            JournalTable.Column.CALLER + ", " +
+                            JournalTable.Column.NUMBER + ", " +
+                            JournalTable.Column.TEXT + ") " +
+                            " VALUES (new." + JournalTable.Column.ID +
+                            ", new." + JournalTable.Column.CALLER +
+                            ", " + JournalSearch.indexedNumber("new." + JournalTable.Column.NUMBER) +
+                            ", new." + JournalTable.Column.TEXT + "); " +
+                            " END";
+
+            static final String CREATE_DELETE_TRIGGER =
+                    "CREATE TRIGGER " + JournalIndexTable.NAME + "_delete" +
+                            " AFTER DELETE ON " + JournalTable.NAME +
+                            " BEGIN " +
+                            " DELETE FROM " + JournalIndexTable.NAME +
+                            " WHERE docid = old." + JournalTable.Column.ID + "; " +
+                            " END";
+
+            // the page of the matched records with ids lower than the passed one
+            static final String SEARCH =
+                    "SELECT " + JournalTable.NAME + ".* " +
+                            " FROM " + JournalIndexTable.NAME +
+                            " JOIN " + JournalTable.NAME +
+                            " ON " + JournalTable.NAME + "." + JournalTable.Column.ID +
+                            " = " + JournalIndexTable.NAME + ".docid " +
+                            " WHERE " + JournalIndexTable.NAME + " MATCH ? " +
+                            " AND " + JournalIndexTable.NAME + ".docid < ? " +
+                            " ORDER BY " + JournalIndexTable.NAME + ".docid DESC " +
+                            " LIMIT ? ";
+        }
+    }
+
+    private static void dropJournalIndex(SQLiteDatabase db) {
+        for (String statement : JournalIndexTable.Statement.DROP_TRIGGERS) {
+            db.execSQL(statement);
+        }
+        db.execSQL(JournalIndexTable.Statement.DROP);
+    }
+
+    private static void createJournalIndex(SQLiteDatabase db) {
+        // FTS4 is available since android 3.0
+        String module = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ? "fts4" : "fts3");
+        db.execSQL(String.format(JournalIndexTable.Statement.CREATE, module));
+        db.execSQL(JournalIndexTable.Statement.CREATE_INSERT_TRIGGER);
+        db.execSQL(JournalIndexTable.Statement.CREATE_UPDATE_TRIGGER);
+        db.execSQL(JournalIndexTable.Statement.CREATE_DELETE_TRIGGER);
+    }
+
+    // Record of the journal found by the search
+    public static class JournalItem {
+        public final long id;
+        public final long time;
+        public final String caller;
+        public final String number;
+        public final String text;
+
+        JournalItem(long id, long time, String caller, String number, String text) {
+            this.id = id;
+            this.time = time;
+            this.caller = caller;
+            this.number = number;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Searches the journal records by words (or their beginnings) of the caller and
+     * SMS text, and by fragments of the number. Records are returned from the newest ones by pages:
+     * the next page starts after the id of the last record of the previous one
+     * (pass Long.MAX_VALUE for the first page).
+     */
+    public List<JournalItem> searchJournal(@NonNull String query, long beforeId, int limit) {
+        List<JournalItem> list = new ArrayList<>();
+        String match = JournalSearch.toMatchQuery(query);
+        if (match.isEmpty()) {
+            return list;
+        }
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor;
+        try {
+            cursor = db.rawQuery(JournalIndexTable.Statement.SEARCH, new String[]{
+                    match, String.valueOf(beforeId), String.valueOf(limit)});
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Journal search failed", e);
+            return list;
+        }
+        if (validate(cursor)) {
+            int ID = cursor.getColumnIndex(JournalTable.Column.ID);
+            int TIME = cursor.getColumnIndex(JournalTable.Column.TIME);
+            int CALLER = cursor.getColumnIndex(JournalTable.Column.CALLER);
+            int NUMBER = cursor.getColumnIndex(JournalTable.Column.NUMBER);
+            int TEXT = cursor.getColumnIndex(JournalTable.Column.TEXT);
+            cursor.moveToFirst();
+            do {
+                list.add(new JournalItem(cursor.getLong(ID), cursor.getLong(TIME),
+                        cursor.getString(CALLER), cursor.getString(NUMBER),
+                        cursor.getString(TEXT)));
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+        return list;
+    }
+
+//----------------------------------------------------------------
+
+    // Rollup of the journal by hours (UTC)
+    private static class HourlyRollupTable {
+        static final String NAME = "hourly_rollup";
+        // 31 days
+        static final long RETENTION = 31 * JournalRollup.DAY;
+
+        static class Column {
+            static final String HOUR = "hour";
+            static final String CALLS = "calls";
+            static final String SMS = "sms";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE " + HourlyRollupTable.NAME +
+                            "(" +
+                            Column.HOUR + " INTEGER PRIMARY KEY NOT NULL, " +
+                            Column.CALLS + " INTEGER NOT NULL DEFAULT 0, " +
+                            Column.SMS + " INTEGER NOT NULL DEFAULT 0 " +
+                            ")";
+
+            static final String INSERT =
+                    "INSERT OR IGNORE INTO " + HourlyRollupTable.NAME +
+                            "(" + Column.HOUR + ") VALUES (?)";
+
+            static final String INCREMENT =
+                    "UPDATE " + HourlyRollupTable.NAME +
+                            " SET " + Column.CALLS + " = " + Column.CALLS + " + ?, " +
+                            Column.SMS + " = " + Column.SMS + " + ? " +
+                            " WHERE " + Column.HOUR + " = ? ";
+
+            static final String SELECT_BY_RANGE =
+                    "SELECT * " +
+                            " FROM " + HourlyRollupTable.NAME +
+                            " WHERE " + Column.HOUR + " >= ? " +
+                            " AND " + Column.HOUR + " < ? " +
+                            " ORDER BY " + Column.HOUR;
+        }
+    }
+
+    // Rollup of the journal by local days
+    private static class DailyRollupTable {
+        static final String NAME = "daily_rollup";
+
+        static class Column {
+            static final String DAY = "day";
+            static final String CALLS = "calls";
+            static final String SMS = "sms";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE " + DailyRollupTable.NAME +
+                            "(" +
+                            Column.DAY + " INTEGER PRIMARY KEY NOT NULL, " +
+                            Column.CALLS + " INTEGER NOT NULL DEFAULT 0, " +
+                            Column.SMS + " INTEGER NOT NULL DEFAULT 0 " +
+                            ")";
+
+            static final String INSERT =
+                    "INSERT OR IGNORE INTO " + DailyRollupTable.NAME +
+                            "(" + Column.DAY + ") VALUES (?)";
+
+            static final String INCREMENT =
+                    "UPDATE " + DailyRollupTable.NAME +
+                            " SET " + Column.CALLS + " = " + Column.CALLS + " + ?, " +
+                            Column.SMS + " = " + Column.SMS + " + ? " +
+                            " WHERE " + Column.DAY + " = ? ";
+
+            static final String SELECT_BY_RANGE =
+                    "SELECT * " +
+                            " FROM " + DailyRollupTable.NAME +
+                            " WHERE " + Column.DAY + " >= ? " +
+                            " AND " + Column.DAY + " < ? " +
+                            " ORDER BY " + Column.DAY;
+        }
+    }
+
+    // Rollup of the journal by prefixes of the numbers
+    private static class PrefixRollupTable {
+        static final String NAME = "prefix_rollup";
+
+        static class Column {
+            static final String PREFIX = "prefix";
+            static final String COUNT = "count";
+            static final String LAST_TIME = "last_time";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE " + PrefixRollupTable.NAME +
+                            "(" +
+                            Column.PREFIX + " TEXT PRIMARY KEY NOT NULL, " +
+                            Column.COUNT + " INTEGER NOT NULL DEFAULT 0, " +
+                            Column.LAST_TIME + " INTEGER NOT NULL DEFAULT 0 " +
+                            ")";
+
+            static final String CREATE_INDEX_BY_COUNT =
+                    "CREATE INDEX " + PrefixRollupTable.NAME + "_" + Column.COUNT +
+                            " ON " + PrefixRollupTable.NAME +
+                            "(" + Column.COUNT + ")";
+
+            static final String INSERT =
+                    "INSERT OR IGNORE INTO " + PrefixRollupTable.NAME +
+                            "(" + Column.PREFIX + ") VALUES (?)";
+
+            static final String INCREMENT =
+                    "UPDATE " + PrefixRollupTable.NAME +
+                            " SET " + Column.COUNT + " = " + Column.COUNT + " + ?, " +
+                            Column.LAST_TIME + " = MAX(" + Column.LAST_TIME + ", ?) " +
+                            " WHERE " + Column.PREFIX + " = ? ";
+
+            static final String SELECT_TOP =
+                    "SELECT * " +
+                            " FROM " + PrefixRollupTable.NAME +
+                            " ORDER BY " + Column.COUNT + " DESC " +
+                            " LIMIT ? ";
+        }
+    }
+
+    private static void createRollupTables(SQLiteDatabase db) {
+        db.execSQL(HourlyRollupTable.Statement.CREATE);
+        db.execSQL(DailyRollupTable.Statement.CREATE);
+        db.execSQL(PrefixRollupTable.Statement.CREATE);
+        db.execSQL(PrefixRollupTable.Statement.CREATE_INDEX_BY_COUNT);
+    }
+
+    // Adds the counters to the rollup tables (UPSERT isn't supported by the old SQLite)
+    private static void addRollup(SQLiteDatabase db, JournalRollup rollup) {
+        for (Map.Entry<Long, long[]> entry : rollup.getHours().entrySet()) {
+            long[] counters = entry.getValue();
+            db.execSQL(HourlyRollupTable.Statement.INSERT, new Object[]{entry.getKey()});
+            db.execSQL(HourlyRollupTable.Statement.INCREMENT, new Object[]{
+                    counters[JournalRollup.CALLS], counters[JournalRollup.SMS], entry.getKey()});
+        }
+        for (Map.Entry<Long, long[]> entry : rollup.getDays().entrySet()) {
+            long[] counters = entry.getValue();
+            db.execSQL(DailyRollupTable.Statement.INSERT, new Object[]{entry.getKey()});
+            db.execSQL(DailyRollupTable.Statement.INCREMENT, new Object[]{
+                    counters[JournalRollup.CALLS], counters[JournalRollup.SMS], entry.getKey()});
+        }
+        for (Map.Entry<String, long[]> entry : rollup.getPrefixes().entrySet()) {
+            long[] counter = entry.getValue();
+            db.execSQL(PrefixRollupTable.Statement.INSERT, new Object[]{entry.getKey()});
+            db.execSQL(PrefixRollupTable.Statement.INCREMENT, new Object[]{
+                    counter[0], counter[JournalRollup.LAST_TIME], entry.getKey()});
+        }
+    }
+
+    // Counts the existing journal records in the rollup tables
+    private void rebuildRollups(SQLiteDatabase db) {
+        db.delete(HourlyRollupTable.NAME, null, null);
+        db.delete(DailyRollupTable.NAME, null, null);
+        db.delete(PrefixRollupTable.NAME, null, null);
+        Cursor cursor = db.rawQuery(JournalTable.Statement.SELECT_FOR_ROLLUP, null);
+        if (cursor == null) {
+            return;
+        }
+        JournalRollup rollup = new JournalRollup(TimeZone.getDefault(), canonicalizer);
+        long expired = JournalRollup.getHour(System.currentTimeMillis()) -
+                HourlyRollupTable.RETENTION;
+        try {
+            while (cursor.moveToNext()) {
+                rollup.add(cursor.getLong(0), cursor.getString(1), !cursor.isNull(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        addRollup(db, rollup);
+        db.delete(HourlyRollupTable.NAME, HourlyRollupTable.Column.HOUR + " < ? ",
+                new String[]{String.valueOf(expired)});
+    }
+
+    // Counters of calls and SMS of the hour or day
+    public static class RollupItem {
+        // start time of the hour or number of the local day since the epoch
+        public final long key;
+        public final long calls;
+        public final long sms;
+
+        RollupItem(long key, long calls, long sms) {
+            this.key = key;
+            this.calls = calls;
+            this.sms = sms;
+        }
+    }
+
+    // Counter of the blocked numbers with the prefix
+    public static class PrefixRollupItem {
+        public final String prefix;
+        public final long count;
+        public final long lastTime;
+
+        PrefixRollupItem(String prefix, long count, long lastTime) {
+            this.prefix = prefix;
+            this.count = count;
+            this.lastTime = lastTime;
+        }
+    }
+
+    // Selects counters of the hours in range [from, to) of the times
+    public List<RollupItem> getHourlyRollup(long fromTime, long toTime) {
+        return getRollup(HourlyRollupTable.Statement.SELECT_BY_RANGE,
+                JournalRollup.getHour(fromTime), toTime);
+    }
+
+    // Selects counters of the local days in range [from, to) of the days numbers
+    public List<RollupItem> getDailyRollup(long fromDay, long toDay) {
+        return getRollup(DailyRollupTable.Statement.SELECT_BY_RANGE, fromDay, toDay);
+    }
+
+    private List<RollupItem> getRollup(String statement, long from, long to) {
+        List<RollupItem> list = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(statement,
+                new String[]{String.valueOf(from), String.valueOf(to)});
+        if (validate(cursor)) {
+            // hour or day is the first column
+            int CALLS = cursor.getColumnIndex(HourlyRollupTable.Column.CALLS);
+            int SMS = cursor.getColumnIndex(HourlyRollupTable.Column.SMS);
+            cursor.moveToFirst();
+            do {
+                list.add(new RollupItem(cursor.getLong(0), cursor.getLong(CALLS), cursor.getLong(SMS)));
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+        return list;
+    }
+
+    // Selects the prefixes of the most often blocked numbers
+    public List<PrefixRollupItem> getTopPrefixes(int limit) {
+        List<PrefixRollupItem> list = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(PrefixRollupTable.Statement.SELECT_TOP,
+                new String[]{String.valueOf(limit)});
+        if (validate(cursor)) {
+            int PREFIX = cursor.getColumnIndex(PrefixRollupTable.Column.PREFIX);
+            int COUNT = cursor.getColumnIndex(PrefixRollupTable.Column.COUNT);
+            int LAST_TIME = cursor.getColumnIndex(PrefixRollupTable.Column.LAST_TIME);
+            cursor.moveToFirst();
+            do {
+                list.add(new PrefixRollupItem(cursor.getString(PREFIX),
+                        cursor.getLong(COUNT), cursor.getLong(LAST_TIME)));
+            } while (cursor.moveToNext());
+            cursor.close();
         }
+        return list;
     }
 
 //----------------------------------------------------------------
@@ -138,6 +866,9 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
             static final String NUMBER = "number";
             static final String TYPE = "type";
             static final String CONTACT_ID = "contact_id";
+            // keys of the bounds of the range rule
+            static final String RANGE_FROM = "range_from";
+            static final String RANGE_TO = "range_to";
         }
 
         static class Statement {
@@ -148,11 +879,30 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             Column.NUMBER + " TEXT NOT NULL, " +
                             Column.TYPE + " INTEGER NOT NULL, " +
                             Column.CONTACT_ID + " INTEGER NOT NULL, " +
+                            Column.RANGE_FROM + " INTEGER, " +
+                            Column.RANGE_TO + " INTEGER, " +
                             "FOREIGN KEY(" + Column.CONTACT_ID + ") REFERENCES " +
                             ContactTable.NAME + "(" + ContactTable.Column.ID + ")" +
                             " ON DELETE CASCADE " +
                             ")";
 
+            // deltas of the lists lookup the rules of the contact by number
+            static final String CREATE_INDEX_BY_CONTACT_ID =
+                    "CREATE INDEX IF NOT EXISTS " + ContactNumberTable.NAME + "_" + Column.CONTACT_ID +
+                            " ON " + ContactNumberTable.NAME +
+                            "(" + Column.CONTACT_ID + ", " + Column.NUMBER + ")";
+
+            static final String WHERE_CONTACT_ID_AND_NUMBER =
+                    Column.CONTACT_ID + " = ? AND " +
+                            Column.NUMBER + " = ? AND " +
+                            Column.TYPE + " = ? ";
+
+            static final String EXISTS_BY_CONTACT_ID_AND_NUMBER =
+                    "SELECT EXISTS (" +
+                            " SELECT 1 " +
+                            " FROM " + ContactNumberTable.NAME +
+                            " WHERE " + WHERE_CONTACT_ID_AND_NUMBER + ")";
+
             static final String SELECT_BY_CONTACT_ID =
                     "SELECT * " +
                             " FROM " + ContactNumberTable.NAME +
@@ -160,10 +910,22 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             " ORDER BY " + Column.NUMBER +
                             " ASC";
 
-            static final String SELECT_BY_NUMBER =
+            static final String ADD_RANGE_FROM =
+                    "ALTER TABLE " + ContactNumberTable.NAME +
+                            " ADD COLUMN " + Column.RANGE_FROM + " INTEGER";
+
+            static final String ADD_RANGE_TO =
+                    "ALTER TABLE " + ContactNumberTable.NAME +
+                            " ADD COLUMN " + Column.RANGE_TO + " INTEGER";
+
+            static final String SELECT_BY_TYPE =
                     "SELECT * " +
                             " FROM " + ContactNumberTable.NAME +
-                            " WHERE (" +
+                            " WHERE " + Column.TYPE + " = ? ";
+
+            // the first argument is the canonical form of the number
+            static final String WHERE_NUMBER_MATCHES =
+                    " ((" +
                             Column.TYPE + " = " + ContactNumber.TYPE_EQUALS + " AND " +
                             " ? = " + Column.NUMBER + ") OR (" +
                             Column.TYPE + " = " + ContactNumber.TYPE_STARTS + " AND " +
@@ -171,7 +933,22 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             Column.TYPE + " = " + ContactNumber.TYPE_ENDS + " AND " +
                             " ? LIKE '%'||" + Column.NUMBER + ") OR (" +
                             Column.TYPE + " = " + ContactNumber.TYPE_CONTAINS + " AND " +
-                            " ? LIKE '%'||" + Column.NUMBER + "||'%')";
+                            " ? LIKE '%'||" + Column.NUMBER + "||'%')) ";
+
+            static final String SELECT_BY_NUMBER =
+                    "SELECT * " +
+                            " FROM " + ContactNumberTable.NAME +
+                            " WHERE " + WHERE_NUMBER_MATCHES;
+
+            static final String EXISTS_BY_NUMBER_AND_CONTACT_TYPE =
+                    "SELECT EXISTS (" +
+                            " SELECT 1 " +
+                            " FROM " + ContactNumberTable.NAME +
+                            " WHERE " + WHERE_NUMBER_MATCHES + " AND " +
+                            Column.CONTACT_ID + " IN (" +
+                            " SELECT " + ContactTable.Column.ID +
+                            " FROM " + ContactTable.NAME +
+                            " WHERE " + ContactTable.Column.TYPE + " = ? ))";
         }
     }
 
@@ -181,6 +958,8 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         public static final int TYPE_CONTAINS = 1;
         public static final int TYPE_STARTS = 2;
         public static final int TYPE_ENDS = 3;
+        public static final int TYPE_PATTERN = 4;
+        public static final int TYPE_RANGE = 5;
 
         public final long id;
         public final String number;
@@ -239,61 +1018,235 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
     @Nullable
     private ContactNumberCursorWrapper getContactNumbersByNumber(String number) {
         SQLiteDatabase db = getReadableDatabase();
+        String canonical = ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer, number);
         Cursor cursor = db.rawQuery(
                 ContactNumberTable.Statement.SELECT_BY_NUMBER,
-                new String[]{number, number, number, number});
+                new String[]{canonical, number, number, number});
 
         return (validate(cursor) ? new ContactNumberCursorWrapper(cursor) : null);
     }
 
+    // Checks whether the number matches to any rule of the contacts with passed type
+    private boolean hasContactNumber(String number, int contactType) {
+        String canonical = ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer, number);
+        if (simpleQueryForLong(0,
+                ContactNumberTable.Statement.EXISTS_BY_NUMBER_AND_CONTACT_TYPE,
+                canonical, number, number, number, String.valueOf(contactType)) != 0) {
+            return true;
+        }
+        CompiledRules rules = getCompiledRules();
+        for (int i : matchCompiledRules(rules, number, canonical)) {
+            if (rules.contactTypes[i] == contactType) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Checks whether the number is in the white list
+    public boolean isWhiteListed(String number) {
+        return hasContactNumber(number, Contact.TYPE_WHITE_LIST);
+    }
+
     // Searches contact numbers by number value
     private List<ContactNumber> getContactNumbers(String number) {
-        List<ContactNumber> list = new LinkedList<>();
-        ContactNumberCursorWrapper cursor = getContactNumbersByNumber(number);
-        if (cursor != null) {
-            do {
-                list.add(cursor.getNumber());
-            } while (cursor.moveToNext());
-            cursor.close();
+        List<ContactNumber> list = toList(getContactNumbersByNumber(number));
+        CompiledRules rules = getCompiledRules();
+        int[] matched = matchCompiledRules(rules, number,
+                ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer, number));
+        if (matched.length > 0) {
+            list = new ArrayList<>(list);
+            for (int i : matched) {
+                list.add(rules.numbers[i]);
+            }
         }
-
         return list;
     }
 
-//----------------------------------------------------------------
-
-    // Table of contacts (black/white lists)
-    private static class ContactTable {
-        static final String NAME = "contact";
-
-        static class Column {
-            static final String ID = "_id";
-            static final String NAME = "name";
-            static final String TYPE = "type"; // black/white type
+    /**
+     * Adds the number rule to the contact. Numbers of equality rules are
+     * canonicalized, bounds of range rules ("from..to") are stored as keys.
+     * Returns id of the added row or -1 if the rule isn't valid.
+     */
+    public long addContactNumber(long contactId, @NonNull String number, int type) {
+        ContentValues values = new ContentValues();
+        number = toStoredNumber(number, type, values);
+        if (number == null) {
+            return -1;
         }
+        values.put(ContactNumberTable.Column.NUMBER, number);
+        values.put(ContactNumberTable.Column.TYPE, type);
+        values.put(ContactNumberTable.Column.CONTACT_ID, contactId);
 
-        static class Statement {
-            static final String CREATE =
-                    "CREATE TABLE " + ContactTable.NAME +
-                            "(" +
-                            Column.ID + " INTEGER PRIMARY KEY NOT NULL, " +
-                            Column.NAME + " TEXT NOT NULL, " +
-                            Column.TYPE + " INTEGER NOT NULL DEFAULT 0 " +
-                            ")";
-
-            static final String SELECT_BY_ID =
-                    "SELECT * " +
-                            " FROM " + ContactTable.NAME +
-                            " WHERE " + Column.ID + " = ? ";
+        SQLiteDatabase db = getWritableDatabase();
+        long id = db.insert(ContactNumberTable.NAME, null, values);
+        if (id >= 0) {
+            invalidateRules();
+            Profiles.invalidate();
         }
+        return id;
     }
 
-    // The contact
-    public static class Contact {
-//        public static final int TYPE_BLACK_LIST = 1;
-        public static final int TYPE_WHITE_LIST = 2;
+    // Returns the form of the number the rule is stored with or null if the rule isn't valid.
+    // Keys of the range bounds are put to the values.
+    @Nullable
+    private String toStoredNumber(@NonNull String number, int type, @NonNull ContentValues values) {
+        switch (type) {
+            case ContactNumber.TYPE_EQUALS:
+                return ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer,
+                        ContactsAccessHelper.normalizePhoneNumber(number));
+            case ContactNumber.TYPE_PATTERN:
+                return (PatternAutomaton.isValid(number) ? number : null);
+            case ContactNumber.TYPE_RANGE:
+                long[] range = NumberRangeIndex.parse(canonicalizer, number);
+                if (range == null) {
+                    return null;
+                }
+                values.put(ContactNumberTable.Column.RANGE_FROM, range[0]);
+                values.put(ContactNumberTable.Column.RANGE_TO, range[1]);
+                return number;
+            default:
+                return ContactsAccessHelper.normalizePhoneNumber(number);
+        }
+    }
 
-        public final long id;
+    /**
+     * Applies the delta to the numbers of the contact in one transaction touching
+     * the changed rows only. Returns the changes which were applied actually (with
+     * numbers in the stored form) or null on error.
+     */
+    @Nullable
+    public BlockListDelta applyContactNumbersDelta(long contactId, @NonNull BlockListDelta delta) {
+        List<BlockListDelta.Entry> added = new ArrayList<>();
+        List<BlockListDelta.Entry> removed = new ArrayList<>();
+        boolean notSqlChanged = false;
+        String id = String.valueOf(contactId);
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (BlockListDelta.Entry entry : delta.getRemoved()) {
+                String number = toStoredNumber(entry.number, entry.type, new ContentValues());
+                if (number != null && db.delete(ContactNumberTable.NAME,
+                        ContactNumberTable.Statement.WHERE_CONTACT_ID_AND_NUMBER,
+                        new String[]{id, number, String.valueOf(entry.type)}) > 0) {
+                    removed.add(new BlockListDelta.Entry(entry.type, number));
+                    notSqlChanged |= isNotSql(entry.type);
+                }
+            }
+            for (BlockListDelta.Entry entry : delta.getAdded()) {
+                ContentValues values = new ContentValues();
+                String number = toStoredNumber(entry.number, entry.type, values);
+                if (number == null || simpleQueryForLong(0,
+                        ContactNumberTable.Statement.EXISTS_BY_CONTACT_ID_AND_NUMBER,
+                        id, number, String.valueOf(entry.type)) != 0) {
+                    continue;
+                }
+                values.put(ContactNumberTable.Column.NUMBER, number);
+                values.put(ContactNumberTable.Column.TYPE, entry.type);
+                values.put(ContactNumberTable.Column.CONTACT_ID, contactId);
+                if (db.insert(ContactNumberTable.NAME, null, values) >= 0) {
+                    added.add(new BlockListDelta.Entry(entry.type, number));
+                    notSqlChanged |= isNotSql(entry.type);
+                }
+            }
+            db.setTransactionSuccessful();
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Delta isn't applied", e);
+            return null;
+        } finally {
+            db.endTransaction();
+        }
+        if (notSqlChanged) {
+            invalidateRules();
+        } else if (!added.isEmpty() || !removed.isEmpty()) {
+            Generations.bump(Generations.NUMBERS);
+        }
+        return new BlockListDelta(added, removed);
+    }
+
+    // Whether the rules of the type are compiled to memory
+    private static boolean isNotSql(int type) {
+        return type == ContactNumber.TYPE_PATTERN || type == ContactNumber.TYPE_RANGE;
+    }
+
+    // Selects contact numbers by contact id
+    private List<ContactNumber> getContactNumbers(long contactId) {
+        return toList(getContactNumbersByContactId(contactId));
+    }
+
+    // Reads contact numbers from cursor and closes it
+    private List<ContactNumber> toList(@Nullable ContactNumberCursorWrapper cursor) {
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        List<ContactNumber> list = new ArrayList<>(cursor.getCount());
+        do {
+            list.add(cursor.getNumber());
+        } while (cursor.moveToNext());
+        cursor.close();
+
+        return list;
+    }
+
+    // List of contact numbers which are fetched at the first access only
+    abstract static class LazyNumberList extends AbstractList<ContactNumber> {
+        private List<ContactNumber> numbers = null;
+
+        // Fetches the numbers
+        abstract List<ContactNumber> load();
+
+        private synchronized List<ContactNumber> getNumbers() {
+            if (numbers == null) {
+                numbers = load();
+            }
+            return numbers;
+        }
+
+        @Override
+        public ContactNumber get(int location) {
+            return getNumbers().get(location);
+        }
+
+        @Override
+        public int size() {
+            return getNumbers().size();
+        }
+    }
+
+//----------------------------------------------------------------
+
+    // Table of contacts (black/white lists)
+    private static class ContactTable {
+        static final String NAME = "contact";
+
+        static class Column {
+            static final String ID = "_id";
+            static final String NAME = "name";
+            static final String TYPE = "type"; // black/white type
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE " + ContactTable.NAME +
+                            "(" +
+                            Column.ID + " INTEGER PRIMARY KEY NOT NULL, " +
+                            Column.NAME + " TEXT NOT NULL, " +
+                            Column.TYPE + " INTEGER NOT NULL DEFAULT 0 " +
+                            ")";
+
+            static final String SELECT_BY_ID =
+                    "SELECT * " +
+                            " FROM " + ContactTable.NAME +
+                            " WHERE " + Column.ID + " = ? ";
+        }
+    }
+
+    // The contact
+    public static class Contact {
+        public static final int TYPE_BLACK_LIST = 1;
+        public static final int TYPE_WHITE_LIST = 2;
+
+        public final long id;
         public final String name;
         public final int type;
         public final List<ContactNumber> numbers;
@@ -331,19 +1284,20 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         }
 
         Contact getContact(boolean withNumbers) {
-            long id = getLong(ID);
+            final long id = getLong(ID);
             String name = getString(NAME);
             int type = getInt(TYPE);
 
-            List<ContactNumber> numbers = new LinkedList<>();
+            List<ContactNumber> numbers;
             if (withNumbers) {
-                ContactNumberCursorWrapper cursor = getContactNumbersByContactId(id);
-                if (cursor != null) {
-                    do {
-                        numbers.add(cursor.getNumber());
-                    } while (cursor.moveToNext());
-                    cursor.close();
-                }
+                numbers = new LazyNumberList() {
+                    @Override
+                    List<ContactNumber> load() {
+                        return getContactNumbers(id);
+                    }
+                };
+            } else {
+                numbers = Collections.emptyList();
             }
 
             return new Contact(id, name, type, numbers);
@@ -363,7 +1317,10 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
 
     // Searches contacts by contact numbers (retrieving them by ContactNumber.contactId)
     private List<Contact> getContacts(List<ContactNumber> numbers, boolean withNumbers) {
-        List<Contact> contacts = new LinkedList<>();
+        if (numbers.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Contact> contacts = new ArrayList<>(numbers.size());
         for (ContactNumber contactNumber : numbers) {
             ContactCursorWrapper cursor = getContact(contactNumber.contactId);
             if (cursor != null) {
@@ -380,9 +1337,523 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         return getContacts(numbers, withNumbers);
     }
 
+//----------------------------------------------------------------
 
+    // Rules are the contact numbers joined with their contacts
+    private static class RuleView {
+        static class Column {
+            static final String CONTACT_NAME = "contact_name";
+            static final String CONTACT_TYPE = "contact_type";
+        }
 
+        static class Statement {
+            static final String SELECT =
+                    "SELECT n." + ContactNumberTable.Column.ID + ", " +
+                            "n." + ContactNumberTable.Column.NUMBER + ", " +
+                            "n." + ContactNumberTable.Column.TYPE + ", " +
+                            "n." + ContactNumberTable.Column.CONTACT_ID + ", " +
+                            "n." + ContactNumberTable.Column.RANGE_FROM + ", " +
+                            "n." + ContactNumberTable.Column.RANGE_TO + ", " +
+                            "c." + ContactTable.Column.NAME + " AS " + Column.CONTACT_NAME + ", " +
+                            "c." + ContactTable.Column.TYPE + " AS " + Column.CONTACT_TYPE +
+                            " FROM " + ContactNumberTable.NAME + " n " +
+                            " JOIN " + ContactTable.NAME + " c " +
+                            " ON n." + ContactNumberTable.Column.CONTACT_ID +
+                            " = c." + ContactTable.Column.ID;
+
+            // profile with id 0 or without any linked contact includes all of them
+            static final String SELECT_BY_PROFILE_ID =
+                    SELECT +
+                            " WHERE NOT EXISTS (" +
+                            " SELECT 1 FROM " + ProfileContactTable.NAME +
+                            " WHERE " + ProfileContactTable.Column.PROFILE_ID + " = ? ) OR " +
+                            " c." + ContactTable.Column.ID + " IN (" +
+                            " SELECT " + ProfileContactTable.Column.CONTACT_ID +
+                            " FROM " + ProfileContactTable.NAME +
+                            " WHERE " + ProfileContactTable.Column.PROFILE_ID + " = ? )";
+
+            // rules which can't be matched by SQL
+            static final String SELECT_NOT_SQL =
+                    SELECT +
+                            " WHERE n." + ContactNumberTable.Column.TYPE + " IN (" +
+                            ContactNumber.TYPE_PATTERN + ", " + ContactNumber.TYPE_RANGE + ")";
+        }
+    }
+
+    // Rule cursor wrapper
+    public class RuleCursorWrapper extends CursorWrapper {
+        private final int ID;
+        private final int NUMBER;
+        private final int TYPE;
+        private final int CONTACT_ID;
+        private final int RANGE_FROM;
+        private final int RANGE_TO;
+        private final int CONTACT_NAME;
+        private final int CONTACT_TYPE;
 
+        RuleCursorWrapper(Cursor cursor) {
+            super(cursor);
+            cursor.moveToFirst();
+            ID = cursor.getColumnIndex(ContactNumberTable.Column.ID);
+            NUMBER = cursor.getColumnIndex(ContactNumberTable.Column.NUMBER);
+            TYPE = cursor.getColumnIndex(ContactNumberTable.Column.TYPE);
+            CONTACT_ID = cursor.getColumnIndex(ContactNumberTable.Column.CONTACT_ID);
+            RANGE_FROM = cursor.getColumnIndex(ContactNumberTable.Column.RANGE_FROM);
+            RANGE_TO = cursor.getColumnIndex(ContactNumberTable.Column.RANGE_TO);
+            CONTACT_NAME = cursor.getColumnIndex(RuleView.Column.CONTACT_NAME);
+            CONTACT_TYPE = cursor.getColumnIndex(RuleView.Column.CONTACT_TYPE);
+        }
+
+        public ContactNumber getNumber() {
+            long id = getLong(ID);
+            String number = getString(NUMBER);
+            int type = getInt(TYPE);
+            long contactId = getLong(CONTACT_ID);
+            return new ContactNumber(id, number, type, contactId);
+        }
+
+        // Returns the key of the lower bound of the range rule or -1
+        public long getRangeFrom() {
+            return (isNull(RANGE_FROM) ? -1 : getLong(RANGE_FROM));
+        }
+
+        // Returns the key of the upper bound of the range rule or -1
+        public long getRangeTo() {
+            return (isNull(RANGE_TO) ? -1 : getLong(RANGE_TO));
+        }
+
+        public String getContactName() {
+            return getString(CONTACT_NAME);
+        }
+
+        public int getContactType() {
+            return getInt(CONTACT_TYPE);
+        }
+    }
+
+    // Selects all rules included to the profile
+    @Nullable
+    public RuleCursorWrapper getRules(long profileId) {
+        SQLiteDatabase db = getReadableDatabase();
+        String id = String.valueOf(profileId);
+        Cursor cursor = db.rawQuery(
+                RuleView.Statement.SELECT_BY_PROFILE_ID,
+                new String[]{id, id});
+
+        return (validate(cursor) ? new RuleCursorWrapper(cursor) : null);
+    }
+
+    // Selects all rules which can't be matched by SQL
+    @Nullable
+    private RuleCursorWrapper getNotSqlRules() {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(RuleView.Statement.SELECT_NOT_SQL, null);
+
+        return (validate(cursor) ? new RuleCursorWrapper(cursor) : null);
+    }
+
+    // Pattern and range rules can't be matched by SQL, so they are compiled to the
+    // automaton and interval tree. Both return indexes of the numbers on matching.
+    private static class CompiledRules {
+        final PatternAutomaton patterns;
+        final NumberRangeIndex ranges;
+        final ContactNumber[] numbers;
+        final int[] contactTypes;
+
+        CompiledRules(PatternAutomaton patterns, NumberRangeIndex ranges,
+                      ContactNumber[] numbers, int[] contactTypes) {
+            this.patterns = patterns;
+            this.ranges = ranges;
+            this.numbers = numbers;
+            this.contactTypes = contactTypes;
+        }
+    }
+
+    private volatile CompiledRules compiledRules = null;
+
+    // pattern and range rules are recompiled on demand
+    final MemoryAccountable compiledRulesMemory = new MemoryAccountable() {
+        @Override
+        public int getEntriesCount() {
+            CompiledRules rules = compiledRules;
+            return (rules == null ? 0 : rules.numbers.length);
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            CompiledRules rules = compiledRules;
+            if (rules == null) {
+                return 0;
+            }
+            long bytes = MemorySizes.OBJECT + rules.patterns.estimateBytes() +
+                    rules.ranges.estimateBytes() +
+                    MemorySizes.array(rules.numbers.length, MemorySizes.REFERENCE) +
+                    MemorySizes.array(rules.contactTypes.length, 4);
+            for (ContactNumber number : rules.numbers) {
+                bytes += MemorySizes.OBJECT + 16 + MemorySizes.string(number.number);
+            }
+            return bytes;
+        }
+
+        @Override
+        public long trim() {
+            long bytes = getRetainedBytes();
+            compiledRules = null;
+            return bytes;
+        }
+
+        @Override
+        public void restore() {
+            // is rebuilt on demand
+        }
+    };
+
+    // Returns pattern and range rules compiling them on demand
+    private CompiledRules getCompiledRules() {
+        CompiledRules rules = compiledRules;
+        if (rules == null) {
+            List<ContactNumber> numbers = new ArrayList<>();
+            List<Integer> contactTypes = new ArrayList<>();
+            PatternAutomaton.Builder patterns = new PatternAutomaton.Builder();
+            NumberRangeIndex.Builder ranges = new NumberRangeIndex.Builder();
+            RuleCursorWrapper cursor = getNotSqlRules();
+            if (cursor != null) {
+                do {
+                    ContactNumber number = cursor.getNumber();
+                    boolean added = false;
+                    if (number.type == ContactNumber.TYPE_PATTERN) {
+                        added = patterns.add(number.number, numbers.size());
+                    } else if (cursor.getRangeFrom() >= 0) {
+                        ranges.add(cursor.getRangeFrom(), cursor.getRangeTo(), numbers.size());
+                        added = true;
+                    }
+                    if (added) {
+                        numbers.add(number);
+                        contactTypes.add(cursor.getContactType());
+                    }
+                } while (cursor.moveToNext());
+                cursor.close();
+            }
+            int[] types = new int[contactTypes.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = contactTypes.get(i);
+            }
+            rules = new CompiledRules(patterns.build(), ranges.build(),
+                    numbers.toArray(new ContactNumber[numbers.size()]), types);
+            compiledRules = rules;
+        }
+        return rules;
+    }
+
+    // Returns indexes of the compiled rules matching to the number
+    private int[] matchCompiledRules(CompiledRules rules, String number, String canonical) {
+        // patterns may be written for the canonical form as well as for the local one
+        int[] patterns = rules.patterns.match(canonical, number);
+        int[] ranges = rules.ranges.query(NumberRangeIndex.toKey(canonical));
+        if (ranges.length == 0) {
+            return patterns;
+        }
+        if (patterns.length == 0) {
+            return ranges;
+        }
+        int[] matched = new int[patterns.length + ranges.length];
+        System.arraycopy(patterns, 0, matched, 0, patterns.length);
+        System.arraycopy(ranges, 0, matched, patterns.length, ranges.length);
+        return matched;
+    }
+
+    /**
+     * Drops the in-memory rules compiled from the table of numbers.
+     * Must be called after the table is changed.
+     */
+    public void invalidateRules() {
+        compiledRules = null;
+        Generations.bump(Generations.NUMBERS);
+    }
+
+//----------------------------------------------------------------
+
+    // Table of silence profiles
+    private static class ProfileTable {
+        static final String NAME = "profile";
+
+        // name, block private numbers, block numbers not from contacts
+        static final String[][] DEFAULTS = {
+                {"work", "1", "0"},
+                {"night", "1", "1"},
+                {"driving", "1", "1"}
+        };
+
+        static class Column {
+            static final String ID = "_id";
+            static final String NAME = "name";
+            static final String BLOCK_PRIVATE = "block_private";
+            static final String BLOCK_NOT_CONTACTS = "block_not_contacts";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE " + ProfileTable.NAME +
+                            "(" +
+                            Column.ID + " INTEGER PRIMARY KEY NOT NULL, " +
+                            Column.NAME + " TEXT NOT NULL UNIQUE, " +
+                            Column.BLOCK_PRIVATE + " INTEGER NOT NULL DEFAULT 0, " +
+                            Column.BLOCK_NOT_CONTACTS + " INTEGER NOT NULL DEFAULT 0 " +
+                            ")";
+
+            static final String SELECT_ALL =
+                    "SELECT * " +
+                            " FROM " + ProfileTable.NAME +
+                            " ORDER BY " + Column.ID +
+                            " ASC";
+        }
+    }
+
+    // Table of links between profiles and contacts of black/white lists
+    private static class ProfileContactTable {
+        static final String NAME = "profile_contact";
+
+        static class Column {
+            static final String PROFILE_ID = "profile_id";
+            static final String CONTACT_ID = "contact_id";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE " + ProfileContactTable.NAME +
+                            "(" +
+                            Column.PROFILE_ID + " INTEGER NOT NULL, " +
+                            Column.CONTACT_ID + " INTEGER NOT NULL, " +
+                            "PRIMARY KEY(" + Column.PROFILE_ID + ", " + Column.CONTACT_ID + "), " +
+                            "FOREIGN KEY(" + Column.PROFILE_ID + ") REFERENCES " +
+                            ProfileTable.NAME + "(" + ProfileTable.Column.ID + ")" +
+                            " ON DELETE CASCADE, " +
+                            "FOREIGN KEY(" + Column.CONTACT_ID + ") REFERENCES " +
+                            ContactTable.NAME + "(" + ContactTable.Column.ID + ")" +
+                            " ON DELETE CASCADE " +
+                            ")";
+
+            // profile without links includes all contacts
+            static final String EXISTS_IN_PROFILE =
+                    "SELECT EXISTS (" +
+                            " SELECT 1 " +
+                            " FROM " + ProfileContactTable.NAME +
+                            " WHERE " + Column.PROFILE_ID + " = ? AND " +
+                            Column.CONTACT_ID + " = ? ) OR NOT EXISTS (" +
+                            " SELECT 1 " +
+                            " FROM " + ProfileContactTable.NAME +
+                            " WHERE " + Column.PROFILE_ID + " = ? )";
+        }
+    }
+
+    // Profile item
+    public static class ProfileItem {
+        public final long id;
+        public final String name;
+        public final boolean blockPrivate;
+        public final boolean blockNotContacts;
+
+        ProfileItem(long id, @NonNull String name, boolean blockPrivate, boolean blockNotContacts) {
+            this.id = id;
+            this.name = name;
+            this.blockPrivate = blockPrivate;
+            this.blockNotContacts = blockNotContacts;
+        }
+    }
+
+    // Selects all profiles
+    public List<ProfileItem> getProfiles() {
+        List<ProfileItem> list = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(ProfileTable.Statement.SELECT_ALL, null);
+        if (validate(cursor)) {
+            int ID = cursor.getColumnIndex(ProfileTable.Column.ID);
+            int NAME = cursor.getColumnIndex(ProfileTable.Column.NAME);
+            int BLOCK_PRIVATE = cursor.getColumnIndex(ProfileTable.Column.BLOCK_PRIVATE);
+            int BLOCK_NOT_CONTACTS = cursor.getColumnIndex(ProfileTable.Column.BLOCK_NOT_CONTACTS);
+            cursor.moveToFirst();
+            do {
+                list.add(new ProfileItem(
+                        cursor.getLong(ID),
+                        cursor.getString(NAME),
+                        cursor.getInt(BLOCK_PRIVATE) != 0,
+                        cursor.getInt(BLOCK_NOT_CONTACTS) != 0));
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+        return list;
+    }
+
+    // Includes the contact to the profile
+    public boolean addProfileContact(long profileId, long contactId) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(ProfileContactTable.Column.PROFILE_ID, profileId);
+        values.put(ProfileContactTable.Column.CONTACT_ID, contactId);
+        if (db.insertWithOnConflict(ProfileContactTable.NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE) >= 0) {
+            Generations.bump(Generations.CONTACTS);
+            return true;
+        }
+        return false;
+    }
+
+    // Checks whether the rules of the contact are used by the profile
+    public boolean isProfileContact(long profileId, long contactId) {
+        return simpleQueryForLong(0, ProfileContactTable.Statement.EXISTS_IN_PROFILE,
+                String.valueOf(profileId), String.valueOf(contactId), String.valueOf(profileId)) != 0;
+    }
+
+    // Excludes the contact from the profile
+    public boolean deleteProfileContact(long profileId, long contactId) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.delete(ProfileContactTable.NAME,
+                ProfileContactTable.Column.PROFILE_ID + " = ? AND " +
+                        ProfileContactTable.Column.CONTACT_ID + " = ? ",
+                new String[]{String.valueOf(profileId), String.valueOf(contactId)}) > 0) {
+            Generations.bump(Generations.CONTACTS);
+            return true;
+        }
+        return false;
+    }
+
+
+
+
+
+//----------------------------------------------------------------
+
+    // Table of the canonical numbers we talked with (from the calls log and SMS)
+    private static class CorrespondentTable {
+        static final String NAME = "correspondent";
+
+        static class Column {
+            static final String NUMBER = "number";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE " + CorrespondentTable.NAME +
+                            "(" +
+                            Column.NUMBER + " TEXT PRIMARY KEY NOT NULL " +
+                            ")";
+
+            static final String SELECT_ALL =
+                    "SELECT * " +
+                            " FROM " + CorrespondentTable.NAME;
+
+            static final String EXISTS_BY_NUMBER =
+                    "SELECT EXISTS (" +
+                            " SELECT 1 " +
+                            " FROM " + CorrespondentTable.NAME +
+                            " WHERE " + Column.NUMBER + " = ? )";
+        }
+    }
+
+    // Selects all correspondents numbers
+    public List<String> getCorrespondents() {
+        List<String> list = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(CorrespondentTable.Statement.SELECT_ALL, null);
+        if (validate(cursor)) {
+            int NUMBER = cursor.getColumnIndex(CorrespondentTable.Column.NUMBER);
+            cursor.moveToFirst();
+            do {
+                list.add(cursor.getString(NUMBER));
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+        return list;
+    }
+
+    // Checks whether the canonical number is of the correspondent
+    public boolean isCorrespondent(@NonNull String number) {
+        return simpleQueryForLong(0, CorrespondentTable.Statement.EXISTS_BY_NUMBER, number) != 0;
+    }
+
+    // Adds correspondents numbers (existing ones are ignored)
+    public boolean addCorrespondents(@NonNull Collection<String> numbers) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (String number : numbers) {
+                values.put(CorrespondentTable.Column.NUMBER, number);
+                db.insertWithOnConflict(CorrespondentTable.NAME, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return true;
+    }
+
+//----------------------------------------------------------------
+
+    // Table of the keywords and phrases of SMS content rules
+    private static class KeywordTable {
+        static final String NAME = "keyword";
+
+        static class Column {
+            static final String ID = "_id";
+            static final String KEYWORD = "keyword";
+        }
+
+        static class Statement {
+            static final String CREATE =
+                    "CREATE TABLE " + KeywordTable.NAME +
+                            "(" +
+                            Column.ID + " INTEGER PRIMARY KEY NOT NULL, " +
+                            Column.KEYWORD + " TEXT NOT NULL UNIQUE COLLATE NOCASE " +
+                            ")";
+
+            static final String SELECT_ALL =
+                    "SELECT * " +
+                            " FROM " + KeywordTable.NAME +
+                            " ORDER BY " + Column.ID;
+        }
+    }
+
+    // Selects all keywords
+    public List<String> getKeywords() {
+        List<String> list = new ArrayList<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(KeywordTable.Statement.SELECT_ALL, null);
+        if (validate(cursor)) {
+            int KEYWORD = cursor.getColumnIndex(KeywordTable.Column.KEYWORD);
+            cursor.moveToFirst();
+            do {
+                list.add(cursor.getString(KEYWORD));
+            } while (cursor.moveToNext());
+            cursor.close();
+        }
+        return list;
+    }
+
+    // Adds the keyword (existing one is ignored)
+    public boolean addKeyword(@NonNull String keyword) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(KeywordTable.Column.KEYWORD, keyword.trim());
+        if (db.insertWithOnConflict(KeywordTable.NAME, null, values,
+                SQLiteDatabase.CONFLICT_IGNORE) >= 0) {
+            Generations.bump(Generations.KEYWORDS);
+            return true;
+        }
+        return false;
+    }
+
+    // Deletes the keyword
+    public boolean deleteKeyword(@NonNull String keyword) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.delete(KeywordTable.NAME, KeywordTable.Column.KEYWORD + " = ? ",
+                new String[]{keyword.trim()}) > 0) {
+            Generations.bump(Generations.KEYWORDS);
+            return true;
+        }
+        return false;
+    }
 
 //----------------------------------------------------------------
 
@@ -405,8 +1876,12 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
                             Column.VALUE + " TEXT " +
                             ")";
 
-            static final String SELECT_BY_NAME =
+            static final String SELECT_ALL =
                     "SELECT * " +
+                            " FROM " + SettingsTable.NAME;
+
+            static final String SELECT_VALUE_BY_NAME =
+                    "SELECT " + Column.VALUE +
                             " FROM " + SettingsTable.NAME +
                             " WHERE " + Column.NAME + " = ? ";
         }
@@ -447,31 +1922,46 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         }
     }
 
-    // Selects settings by name
-    @Nullable
-    private SettingsItemCursorWrapper getSettings(@NonNull String name) {
-        SQLiteDatabase db = getReadableDatabase();
-        Cursor cursor = db.rawQuery(
-                SettingsTable.Statement.SELECT_BY_NAME,
-                new String[]{name});
-
-        return (validate(cursor) ? new SettingsItemCursorWrapper(cursor) : null);
-    }
-
     // Selects value of settings by name
     @Nullable
     public String getSettingsValue(@NonNull String name) {
-        SettingsItemCursorWrapper cursor = getSettings(name);
-        if (cursor != null) {
-            SettingsItem item = cursor.getSettings();
-            cursor.close();
-            return item.value;
+        return simpleQueryForString(SettingsTable.Statement.SELECT_VALUE_BY_NAME, name);
+    }
+
+    // Selects all settings values
+    public Map<String, String> getSettingsValues() {
+        Map<String, String> map = new HashMap<>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.rawQuery(SettingsTable.Statement.SELECT_ALL, null);
+        if (validate(cursor)) {
+            SettingsItemCursorWrapper items = new SettingsItemCursorWrapper(cursor);
+            do {
+                SettingsItem item = items.getSettings();
+                if (item.value != null) {
+                    map.put(item.name, item.value);
+                }
+            } while (items.moveToNext());
+            items.close();
         }
-        return null;
+        return map;
     }
 
     // Sets value of settings with specified name
     public boolean setSettingsValue(@NonNull String name, @NonNull String value) {
+        if (!writeSettingsValue(name, value)) {
+            return false;
+        }
+        Generations.bump(Generations.SETTINGS);
+        return true;
+    }
+
+    // Sets value of the internal state (e.g. high-water marks) stored with the settings.
+    // The decisions don't depend on it, so the generation of the settings isn't changed.
+    public boolean setStateValue(@NonNull String name, @NonNull String value) {
+        return writeSettingsValue(name, value);
+    }
+
+    private boolean writeSettingsValue(@NonNull String name, @NonNull String value) {
         SQLiteDatabase db = getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put(SettingsTable.Column.VALUE, value);
@@ -483,9 +1973,207 @@ public class DatabaseAccessHelper extends SQLiteOpenHelper {
         if (n == 0) {
             // try to add name/value
             values.put(SettingsTable.Column.NAME, name);
-            return db.insert(SettingsTable.NAME, null, values) >= 0;
+            if (db.insert(SettingsTable.NAME, null, values) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+//----------------------------------------------------------------
+
+    // Tables of the users' data in the order of their dependencies (journal isn't included)
+    private static final String[] SNAPSHOT_TABLES = {
+            ContactTable.NAME,
+            ContactNumberTable.NAME,
+            ProfileTable.NAME,
+            ProfileContactTable.NAME,
+            SettingsTable.NAME,
+            CorrespondentTable.NAME,
+            KeywordTable.NAME
+    };
+
+    // Indexes checked against their tables: index name, table name, condition using the index
+    private static final String[][] CHECKED_INDEXES = {
+            {ContactNumberTable.NAME + "_" + ContactNumberTable.Column.CONTACT_ID,
+                    ContactNumberTable.NAME, ContactNumberTable.Column.CONTACT_ID + " >= 0"},
+            {"sqlite_autoindex_" + ProfileContactTable.NAME + "_1",
+                    ProfileContactTable.NAME, ProfileContactTable.Column.PROFILE_ID + " >= 0"},
+            {"sqlite_autoindex_" + CorrespondentTable.NAME + "_1",
+                    CorrespondentTable.NAME, CorrespondentTable.Column.NUMBER + " >= ''"}
+    };
+
+    private static final int SNAPSHOT_NULL = 0;
+    private static final int SNAPSHOT_VALUE = 1;
+
+    /**
+     * Returns true once if the database file was created by this instance (so the
+     * previous one was absent or was deleted as corrupted)
+     */
+    boolean takeCreated() {
+        boolean result = created;
+        created = false;
+        return result;
+    }
+
+    /**
+     * Runs the quick check of the database structure. Returns CHECK_CORRUPTED only if
+     * the check found the damage, and CHECK_UNKNOWN if it couldn't be run.
+     */
+    int quickCheck() {
+        Cursor cursor = null;
+        try {
+            cursor = getReadableDatabase().rawQuery("PRAGMA quick_check(1)", null);
+            if (!cursor.moveToFirst()) {
+                return CHECK_UNKNOWN;
+            }
+            return ("ok".equalsIgnoreCase(cursor.getString(0)) ? CHECK_OK : CHECK_CORRUPTED);
+        } catch (SQLiteDatabaseCorruptException e) {
+            Log.w(TAG, "Database is corrupted", e);
+            return CHECK_CORRUPTED;
+        } catch (SQLiteException e) {
+            Log.w(TAG, "Quick check failed", e);
+            return CHECK_UNKNOWN;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Compares the checksums of the rows read by the indexes and by the tables scans and
+     * rebuilds the indexes which differ. Recomputes the derived columns of the numbers.
+     * Returns count of the repaired items.
+     */
+    int repairDerivedData() {
+        int count = 0;
+        SQLiteDatabase db = getWritableDatabase();
+        for (String[] index : CHECKED_INDEXES) {
+            String indexed = getRowsChecksum(db, index[1] + " INDEXED BY " + index[0], index[2]);
+            String scanned = getRowsChecksum(db, index[1] + " NOT INDEXED", index[2]);
+            if (!scanned.equals(indexed)) {
+                Log.w(TAG, "Index " + index[0] + " differs from its table, rebuilding");
+                db.execSQL("REINDEX " + index[0]);
+                count++;
+            }
+        }
+        db.beginTransaction();
+        try {
+            count += canonicalizeNumbers(db) + repairRangeKeys(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (count > 0) {
+            invalidateRules();
+            Profiles.invalidate();
+        }
+        return count;
+    }
+
+    // Returns count and sum of the row ids of the rows selected by the condition
+    private String getRowsChecksum(SQLiteDatabase db, String from, String where) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT count(*) || ':' || total(rowid) FROM " + from +
+                    " WHERE " + where, null);
+            return (cursor.moveToFirst() ? cursor.getString(0) : "");
+        } catch (SQLiteException e) {
+            // index can't be used at all
+            return e.toString();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the rows of the users' data tables to the stream
+     */
+    void writeSnapshot(@NonNull DataOutputStream out) throws IOException {
+        SQLiteDatabase db = getReadableDatabase();
+        out.writeInt(DATABASE_VERSION);
+        out.writeInt(SNAPSHOT_TABLES.length);
+        for (String table : SNAPSHOT_TABLES) {
+            Cursor cursor = db.rawQuery("SELECT * FROM " + table + " ORDER BY rowid", null);
+            try {
+                String[] columns = cursor.getColumnNames();
+                out.writeUTF(table);
+                out.writeInt(columns.length);
+                for (String column : columns) {
+                    out.writeUTF(column);
+                }
+                out.writeInt(cursor.getCount());
+                while (cursor.moveToNext()) {
+                    for (int i = 0; i < columns.length; i++) {
+                        String value = cursor.getString(i);
+                        if (value == null) {
+                            out.writeByte(SNAPSHOT_NULL);
+                        } else {
+                            out.writeByte(SNAPSHOT_VALUE);
+                            byte[] bytes = value.getBytes("UTF-8");
+                            out.writeInt(bytes.length);
+                            out.write(bytes);
+                        }
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
         }
+    }
 
+    /**
+     * Replaces the rows of the users' data tables by the ones read from the stream
+     * in one transaction. Returns false if the snapshot is of another database version.
+     */
+    boolean restoreSnapshot(@NonNull DataInputStream in) throws IOException {
+        if (in.readInt() != DATABASE_VERSION) {
+            return false;
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = SNAPSHOT_TABLES.length - 1; i >= 0; i--) {
+                db.delete(SNAPSHOT_TABLES[i], null, null);
+            }
+            int tables = in.readInt();
+            for (int t = 0; t < tables; t++) {
+                String table = in.readUTF();
+                if (!Arrays.asList(SNAPSHOT_TABLES).contains(table)) {
+                    throw new IOException("Unknown table " + table);
+                }
+                String[] columns = new String[in.readInt()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = in.readUTF();
+                }
+                int rows = in.readInt();
+                ContentValues values = new ContentValues();
+                for (int r = 0; r < rows; r++) {
+                    values.clear();
+                    for (String column : columns) {
+                        if (in.readByte() == SNAPSHOT_NULL) {
+                            values.putNull(column);
+                        } else {
+                            byte[] bytes = new byte[in.readInt()];
+                            in.readFully(bytes);
+                            values.put(column, new String(bytes, "UTF-8"));
+                        }
+                    }
+                    db.insertWithOnConflict(table, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        invalidateRules();
+        Generations.bump(Generations.CONTACTS);
+        Generations.bump(Generations.SETTINGS);
+        Generations.bump(Generations.CORRESPONDENTS);
+        Generations.bump(Generations.KEYWORDS);
         return true;
     }
 }
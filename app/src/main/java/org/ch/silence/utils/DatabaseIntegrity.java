@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Background integrity checking and self-repair of the database.
+ * Runs the quick check of the file, rebuilds the indexes and derived columns which differ
+ * from the base tables, and keeps the binary snapshot of the users' data. The snapshot is
+ * rewritten when its checksum differs from the one of the checked database, and is used
+ * to restore the lists if the database is corrupted or was recreated.
+ */
+public class DatabaseIntegrity {
+    private static final String TAG = DatabaseIntegrity.class.getName();
+    private static final String SNAPSHOT_FILE = "blacklist.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x534c4e54;
+
+    public static final int RESULT_OK = 0;
+    public static final int RESULT_REPAIRED = 1;
+    public static final int RESULT_RESTORED = 2;
+    public static final int RESULT_FAILED = 3;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean pending = new AtomicBoolean(false);
+
+    /**
+     * Schedules the check in background (if it isn't scheduled yet)
+     */
+    public static void checkAsync(Context context) {
+        if (!pending.compareAndSet(false, true)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    check(appContext);
+                } catch (Exception e) {
+                    Log.w(TAG, "Integrity check failed", e);
+                } finally {
+                    pending.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks and repairs the database. Blocks so mustn't be called from the main thread.
+     */
+    public static int check(Context context) {
+        File snapshot = new File(context.getFilesDir(), SNAPSHOT_FILE);
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        int state;
+        if (db != null) {
+            state = db.quickCheck();
+        } else {
+            state = (DatabaseAccessHelper.isOpenCorrupted() ?
+                    DatabaseAccessHelper.CHECK_CORRUPTED : DatabaseAccessHelper.CHECK_UNKNOWN);
+        }
+        if (state == DatabaseAccessHelper.CHECK_UNKNOWN) {
+            // transient error, the database is checked again on the next start
+            Log.w(TAG, "Database can't be checked now");
+            return RESULT_FAILED;
+        }
+        if (state == DatabaseAccessHelper.CHECK_CORRUPTED) {
+            if (!isValid(snapshot)) {
+                // the damaged file may be still partially readable, so it is kept
+                Log.w(TAG, "Database is corrupted, but there is no valid snapshot to restore it");
+                return RESULT_FAILED;
+            }
+            Log.w(TAG, "Database is corrupted, restoring it from the snapshot");
+            db = DatabaseAccessHelper.recreate(context);
+            if (db == null) {
+                return RESULT_FAILED;
+            }
+            MemoryAccounting.register("compiled_rules", MemoryAccounts.PRIORITY_ESSENTIAL,
+                    db.compiledRulesMemory);
+            return (restore(db, snapshot) ? RESULT_RESTORED : RESULT_FAILED);
+        }
+        if (db.takeCreated() && snapshot.exists()) {
+            // the corrupted file was deleted on opening
+            Log.w(TAG, "Database was recreated, restoring it from the snapshot");
+            return (restore(db, snapshot) ? RESULT_RESTORED : RESULT_FAILED);
+        }
+        int result = RESULT_OK;
+        try {
+            if (db.repairDerivedData() > 0) {
+                result = RESULT_REPAIRED;
+            }
+            writeSnapshot(db, snapshot);
+        } catch (SQLiteException | IOException e) {
+            Log.w(TAG, "Database isn't checked", e);
+            result = RESULT_FAILED;
+        }
+        return result;
+    }
+
+    // Writes the snapshot if the data differ from the stored one
+    private static void writeSnapshot(DatabaseAccessHelper db, File snapshot) throws IOException {
+        File temp = new File(snapshot.getPath() + ".tmp");
+        CheckedOutputStream checked = new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)), new CRC32());
+        DataOutputStream out = new DataOutputStream(checked);
+        long checksum;
+        try {
+            out.writeInt(SNAPSHOT_MAGIC);
+            db.writeSnapshot(out);
+            out.flush();
+            checksum = checked.getChecksum().getValue();
+            out.writeLong(checksum);
+        } finally {
+            out.close();
+        }
+        if (checksum == readStoredChecksum(snapshot)) {
+            // nothing changed since the last snapshot
+            temp.delete();
+        } else if (!temp.renameTo(snapshot)) {
+            temp.delete();
+            throw new IOException("Snapshot can't be replaced");
+        }
+    }
+
+    // Restores the data from the snapshot if it is valid
+    private static boolean restore(DatabaseAccessHelper db, File snapshot) {
+        if (!isValid(snapshot)) {
+            Log.w(TAG, "There is no valid snapshot");
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)));
+            if (in.readInt() != SNAPSHOT_MAGIC || !db.restoreSnapshot(in)) {
+                return false;
+            }
+        } catch (SQLiteException | IOException e) {
+            Log.w(TAG, "Snapshot isn't restored", e);
+            return false;
+        } finally {
+            close(in);
+        }
+        Profiles.invalidate();
+        Settings.invalidate();
+        return true;
+    }
+
+    // Checks the checksum of the snapshot file content
+    private static boolean isValid(File snapshot) {
+        long length = snapshot.length();
+        if (length <= 8) {
+            return false;
+        }
+        InputStream in = null;
+        try {
+            CheckedInputStream checked = new CheckedInputStream(
+                    new BufferedInputStream(new FileInputStream(snapshot)), new CRC32());
+            in = checked;
+            byte[] buffer = new byte[8192];
+            long remaining = length - 8;
+            while (remaining > 0) {
+                int n = checked.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    return false;
+                }
+                remaining -= n;
+            }
+            long checksum = checked.getChecksum().getValue();
+            return checksum == new DataInputStream(checked).readLong();
+        } catch (IOException e) {
+            return false;
+        } finally {
+            close(in);
+        }
+    }
+
+    // Returns the checksum stored at the end of the snapshot or -1
+    private static long readStoredChecksum(File snapshot) {
+        if (snapshot.length() <= 8) {
+            return -1;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(snapshot, "r");
+            file.seek(file.length() - 8);
+            return file.readLong();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static void close(InputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
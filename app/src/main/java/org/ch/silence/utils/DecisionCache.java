@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of the call decisions keyed by the normalized number
+ * (and SIM subscription). Decisions made before any change of the data they
+ * depend on (see {@link Generations}) are treated as missing.
+ */
+public class DecisionCache implements MemoryAccountable {
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final int MIN_CAPACITY = 16;
+    private static final long ENTRY_BYTES = MemorySizes.MAP_ENTRY + 2 * MemorySizes.REFERENCE +
+            MemorySizes.NUMBER + 2 * MemorySizes.OBJECT + 4;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final int initialCapacity;
+    // is lowered on trimming (guarded by this)
+    private int capacity;
+
+    private static class Entry {
+        // mask of the data sources the decision depends on
+        final int sources;
+        final long generation;
+        final CallDecision decision;
+
+        Entry(int sources, long generation, CallDecision decision) {
+            this.sources = sources;
+            this.generation = generation;
+            this.decision = decision;
+        }
+    }
+
+    public DecisionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public DecisionCache(int capacity) {
+        this.initialCapacity = capacity;
+        this.capacity = capacity;
+        entries = new LinkedHashMap<String, Entry>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > DecisionCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the valid decision or null
+     */
+    @Nullable
+    public synchronized CallDecision get(int subscriptionId, @NonNull String number) {
+        String key = key(subscriptionId, number);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.generation != Generations.current(entry.sources)) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.decision;
+    }
+
+    /**
+     * Saves the decision depending on all the data, made at the passed generation of it
+     */
+    public void put(int subscriptionId, @NonNull String number,
+                    @NonNull CallDecision decision, long generation) {
+        put(subscriptionId, number, decision, Generations.ALL, generation);
+    }
+
+    /**
+     * Saves the decision depending on the data sources of the mask,
+     * made at the passed generation of them (see {@link Generations#current(int)})
+     */
+    public synchronized void put(int subscriptionId, @NonNull String number,
+                                 @NonNull CallDecision decision, int sources, long generation) {
+        entries.put(key(subscriptionId, number), new Entry(sources, generation, decision));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getEntriesCount() {
+        return size();
+    }
+
+    @Override
+    public synchronized long getRetainedBytes() {
+        return entries.size() * ENTRY_BYTES;
+    }
+
+    /**
+     * Clears the cache and halves its capacity
+     */
+    @Override
+    public synchronized long trim() {
+        long bytes = getRetainedBytes();
+        entries.clear();
+        capacity = Math.max(MIN_CAPACITY, capacity / 2);
+        return bytes;
+    }
+
+    /**
+     * Restores the capacity the cache was created with
+     */
+    @Override
+    public synchronized void restore() {
+        capacity = initialCapacity;
+    }
+
+    private static String key(int subscriptionId, String number) {
+        return subscriptionId + ":" + number;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Typed publish/subscribe bus of the events.
+ * Publishing is lock-free: the event is put to the queue which is drained by the
+ * listeners in the executor, so the publisher never waits for them. The events
+ * are delivered in the order of publishing. If the listeners lag behind too much
+ * the new events are dropped.
+ */
+public class EventBus<E> {
+    private static final String TAG = EventBus.class.getName();
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Listener of the events, is called in the executor of the bus
+     */
+    public interface Listener<E> {
+        void onEvent(@NonNull E event);
+    }
+
+    // Callback queued after the events, see whenDelivered()
+    private static class Barrier {
+        final Runnable callback;
+
+        Barrier(Runnable callback) {
+            this.callback = callback;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Listener<E>> listeners = new CopyOnWriteArrayList<>();
+    // events and barriers
+    private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final Executor executor;
+    private final int capacity;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            do {
+                Object item;
+                while ((item = queue.poll()) != null) {
+                    if (item instanceof Barrier) {
+                        release((Barrier) item);
+                    } else {
+                        queued.decrementAndGet();
+                        deliver((E) item);
+                    }
+                }
+                draining.set(false);
+                // an event could be queued after the last poll
+            } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+        }
+    };
+
+    public EventBus(@NonNull Executor executor) {
+        this(executor, DEFAULT_CAPACITY);
+    }
+
+    public EventBus(@NonNull Executor executor, int capacity) {
+        this.executor = executor;
+        this.capacity = capacity;
+    }
+
+    public void subscribe(@NonNull Listener<E> listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public void unsubscribe(@NonNull Listener<E> listener) {
+        listeners.remove(listener);
+    }
+
+    public boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Publishes the event. Returns false if it was dropped because of
+     * there are no listeners or the queue is full.
+     */
+    public boolean publish(@NonNull E event) {
+        if (listeners.isEmpty()) {
+            return false;
+        }
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            Metrics.increment(Metrics.DROPPED_EVENTS);
+            return false;
+        }
+        queue.offer(event);
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(drain);
+        }
+        return true;
+    }
+
+    /**
+     * Runs the callback in the executor once all the events published
+     * before are delivered to the listeners
+     */
+    public void whenDelivered(@NonNull Runnable callback) {
+        queue.offer(new Barrier(callback));
+        if (draining.compareAndSet(false, true)) {
+            executor.execute(drain);
+        }
+    }
+
+    private static void release(Barrier barrier) {
+        try {
+            barrier.callback.run();
+        } catch (Exception e) {
+            Log.w(TAG, "Barrier callback failed", e);
+        }
+    }
+
+    private void deliver(E event) {
+        for (Listener<E> listener : listeners) {
+            try {
+                listener.onEvent(event);
+            } catch (Exception e) {
+                Log.w(TAG, "Event listener failed", e);
+            }
+        }
+    }
+}
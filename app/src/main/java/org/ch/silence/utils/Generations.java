@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Generation counters of the data the call decisions depend on.
+ * Every change of the data bumps its counter, so anything computed from
+ * the data can be validated by comparing the generation it was made at.
+ */
+public class Generations {
+    // Data sources
+    public static final int NUMBERS = 0;
+    public static final int CONTACTS = 1;
+    public static final int SETTINGS = 2;
+    public static final int CONTACTS_PROVIDER = 3;
+    public static final int CORRESPONDENTS = 4;
+    public static final int KEYWORDS = 5;
+    private static final int COUNT = 6;
+    // mask of all data sources
+    public static final int ALL = (1 << COUNT) - 1;
+
+    private static final AtomicLongArray counters = new AtomicLongArray(COUNT);
+
+    /**
+     * Marks the data source as changed
+     */
+    public static void bump(int source) {
+        counters.incrementAndGet(source);
+    }
+
+    public static long get(int source) {
+        return counters.get(source);
+    }
+
+    /**
+     * Returns the mask of the data source
+     */
+    public static int mask(int source) {
+        return 1 << source;
+    }
+
+    /**
+     * Returns the generation of all data sources together
+     */
+    public static long current() {
+        return current(ALL);
+    }
+
+    /**
+     * Returns the generation of the data sources of the mask together. Counters
+     * only grow, so it changes whenever any of the sources is changed.
+     */
+    public static long current(int sources) {
+        long sum = 0;
+        for (int i = 0; i < COUNT; i++) {
+            if ((sources & (1 << i)) != 0) {
+                sum += counters.get(i);
+            }
+        }
+        return sum;
+    }
+}
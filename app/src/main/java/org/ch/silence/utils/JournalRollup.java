@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Counts of the journal records by hours, local days and number prefixes.
+ * A batch of records is aggregated here first, so every bucket of the
+ * rollup tables is updated once per batch. Numbers are canonicalized before
+ * taking the prefixes, so the numbers dialed in the national and international
+ * forms are counted together.
+ */
+public class JournalRollup {
+    public static final long HOUR = 60 * 60 * 1000L;
+    public static final long DAY = 24 * HOUR;
+    // count of the leading digits of the number prefix
+    public static final int PREFIX_DIGITS = 4;
+
+    // Indexes of the counters
+    public static final int CALLS = 0;
+    public static final int SMS = 1;
+    // index of the last time of the prefix counter
+    public static final int LAST_TIME = 1;
+
+    private final TimeZone zone;
+    @Nullable
+    private final PhoneNumberCanonicalizer canonicalizer;
+    private final Map<Long, long[]> hours = new TreeMap<>();
+    private final Map<Long, long[]> days = new TreeMap<>();
+    private final Map<String, long[]> prefixes = new TreeMap<>();
+
+    public JournalRollup(@NonNull TimeZone zone, @Nullable PhoneNumberCanonicalizer canonicalizer) {
+        this.zone = zone;
+        this.canonicalizer = canonicalizer;
+    }
+
+    /**
+     * Counts the record of the blocked call or SMS
+     */
+    public void add(long time, @Nullable String number, boolean sms) {
+        get(hours, getHour(time))[sms ? SMS : CALLS]++;
+        get(days, getDay(time, zone))[sms ? SMS : CALLS]++;
+        String prefix = getPrefix(number == null || canonicalizer == null ?
+                number : canonicalizer.canonicalize(number));
+        if (prefix != null) {
+            long[] counter = prefixes.get(prefix);
+            if (counter == null) {
+                counter = new long[2];
+                prefixes.put(prefix, counter);
+            }
+            counter[0]++;
+            counter[LAST_TIME] = Math.max(counter[LAST_TIME], time);
+        }
+    }
+
+    /**
+     * Returns calls and SMS counters by start times of the hours
+     */
+    public Map<Long, long[]> getHours() {
+        return hours;
+    }
+
+    /**
+     * Returns calls and SMS counters by numbers of the local days since the epoch
+     */
+    public Map<Long, long[]> getDays() {
+        return days;
+    }
+
+    /**
+     * Returns count and the last time by the number prefixes
+     */
+    public Map<String, long[]> getPrefixes() {
+        return prefixes;
+    }
+
+    /**
+     * Returns start time of the hour of the time
+     */
+    public static long getHour(long time) {
+        return floorDiv(time, HOUR) * HOUR;
+    }
+
+    /**
+     * Returns number of the local day of the time since the epoch
+     */
+    public static long getDay(long time, @NonNull TimeZone zone) {
+        return floorDiv(time + zone.getOffset(time), DAY);
+    }
+
+    /**
+     * Returns the prefix of the phone number or null if it isn't a phone number
+     */
+    @Nullable
+    public static String getPrefix(@Nullable String number) {
+        if (number == null) {
+            return null;
+        }
+        int start = (number.startsWith("+") ? 1 : 0);
+        int end = Math.min(number.length(), start + PREFIX_DIGITS);
+        if (end == start) {
+            return null;
+        }
+        for (int i = start; i < end; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        return number.substring(0, end);
+    }
+
+    private static long[] get(Map<Long, long[]> map, long key) {
+        long[] counters = map.get(key);
+        if (counters == null) {
+            counters = new long[2];
+            map.put(key, counters);
+        }
+        return counters;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return ((x % y != 0) && ((x ^ y) < 0) ? q - 1 : q);
+    }
+}
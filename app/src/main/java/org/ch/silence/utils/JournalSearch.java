@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Queries of the full-text index of the journal. The tokenizer indexes whole
+ * words only, so the number column is indexed together with the suffixes of
+ * the number: the prefix query of a fragment from the middle of the number
+ * matches the suffix starting with it.
+ */
+public class JournalSearch {
+    // shortest fragment of the number which is found from any position
+    static final int MIN_FRAGMENT = 3;
+    // suffixes are indexed from the first chars of the number only
+    static final int MAX_NUMBER_LENGTH = 16;
+
+    /**
+     * Converts the user's query to the prefix search of all its words.
+     * Non-alphanumeric chars are separators for the tokenizer, so they
+     * are dropped to keep the FTS operators out of the query.
+     * Returns empty string if there are no words.
+     */
+    @NonNull
+    public static String toMatchQuery(@NonNull String query) {
+        StringBuilder match = new StringBuilder();
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            boolean word = (i < query.length() && Character.isLetterOrDigit(query.charAt(i)));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append('"').append(query, start, i).append("*\"");
+                start = -1;
+            }
+        }
+        return match.toString();
+    }
+
+    /**
+     * Returns SQL expression of the indexed text of the number column:
+     * the number followed by its suffixes
+     */
+    @NonNull
+    static String indexedNumber(@NonNull String column) {
+        StringBuilder sql = new StringBuilder(column);
+        for (int start = 2; start <= MAX_NUMBER_LENGTH - MIN_FRAGMENT + 1; start++) {
+            sql.append(" || ' ' || substr(").append(column).append(", ").append(start).append(")");
+        }
+        return sql.toString();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.annotation.TargetApi;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.ch.silence.R;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the blocked calls and SMS to the journal.
+ * Records are written in batches, each one in a single transaction with the
+ * rollups updating, so bursts of the blocked calls and SMS cost one commit.
+ * The receivers hold their broadcasts until the records are committed, so the
+ * process started by the broadcast isn't killed with the records in memory.
+ */
+public class JournalWriter {
+    private static final int BATCH_SIZE = 32;
+    private static final long FLUSH_DELAY_MILLIS = 500;
+    private static volatile JournalWriter sInstance = null;
+
+    /**
+     * Subscribes the writer to the decisions events (only once)
+     */
+    public static void register(Context context) {
+        if (sInstance == null) {
+            synchronized (JournalWriter.class) {
+                if (sInstance == null) {
+                    final JournalWriter writer = new JournalWriter(context.getApplicationContext());
+                    CallDecidedEvent.BUS.subscribe(new EventBus.Listener<CallDecidedEvent>() {
+                        @Override
+                        public void onEvent(@NonNull CallDecidedEvent event) {
+                            if (event.decision.isBlocked()) {
+                                writer.write(event.time, event.decision, event.number, null);
+                            }
+                        }
+                    });
+                    SmsDecidedEvent.BUS.subscribe(new EventBus.Listener<SmsDecidedEvent>() {
+                        @Override
+                        public void onEvent(@NonNull SmsDecidedEvent event) {
+                            // the journal lists the messages which weren't delivered only
+                            if (event.dropped) {
+                                writer.write(event.time, event.decision, event.address, event.body);
+                            }
+                        }
+                    });
+                    sInstance = writer;
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds the broadcast of the receiver until the records of the events it published
+     * to the bus are committed. Before android 3.0 the broadcast can't be held, so the
+     * records are just committed without waiting for the batch.
+     */
+    public static void holdUntilCommitted(@NonNull BroadcastReceiver receiver, @NonNull EventBus<?> bus) {
+        final BroadcastReceiver.PendingResult result =
+                (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB ? goAsync(receiver) : null);
+        // the events published before are passed to the writer by then
+        bus.whenDelivered(new Runnable() {
+            @Override
+            public void run() {
+                commit(result);
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static BroadcastReceiver.PendingResult goAsync(BroadcastReceiver receiver) {
+        return receiver.goAsync();
+    }
+
+    // Commits the pending records in background and then finishes the held broadcast
+    private static void commit(@Nullable final BroadcastReceiver.PendingResult result) {
+        final JournalWriter writer = sInstance;
+        if (writer == null) {
+            finish(result);
+            return;
+        }
+        writer.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.flush();
+                } finally {
+                    finish(result);
+                }
+            }
+        });
+    }
+
+    private static void finish(@Nullable BroadcastReceiver.PendingResult result) {
+        if (result != null) {
+            result.finish();
+        }
+    }
+
+    private final Context context;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    // records waiting for writing (guarded by this)
+    private List<DatabaseAccessHelper.JournalRecord> pending = new ArrayList<>();
+
+    private JournalWriter(Context context) {
+        this.context = context;
+    }
+
+    private void write(long time, CallDecision decision, @Nullable String number, @Nullable String text) {
+        DatabaseAccessHelper.JournalRecord record = new DatabaseAccessHelper.JournalRecord(
+                time, getCaller(decision, number), number, text);
+        int size;
+        synchronized (this) {
+            pending.add(record);
+            size = pending.size();
+        }
+        if (size == 1) {
+            // the first record of the batch
+            executor.schedule(flush, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } else if (size == BATCH_SIZE) {
+            executor.execute(flush);
+        }
+    }
+
+    // Writes the pending records
+    private void flush() {
+        List<DatabaseAccessHelper.JournalRecord> records;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            records = pending;
+            pending = new ArrayList<>();
+        }
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db != null) {
+            db.addJournalRecords(records);
+        }
+    }
+
+    // Returns name of the contact, number, or "private number"
+    private String getCaller(CallDecision decision, @Nullable String number) {
+        if (decision.contact != null) {
+            return decision.contact.name;
+        }
+        if (ContactsAccessHelper.isPrivatePhoneNumber(number)) {
+            return context.getString(R.string.Private_number);
+        }
+        return number;
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aho-Corasick automaton of the keywords and phrases.
+ * All keywords are found in one pass over the text in linear time, however many
+ * of them there are. Matching ignores case, and any run of whitespace in the
+ * keywords and the text is treated as a single space. The automaton may be built to
+ * match the whole words only: then the keyword starting (ending) with a letter or
+ * a digit isn't matched inside a word, e.g. "win" doesn't match "window".
+ * Is immutable once built and so can be shared between threads freely.
+ */
+public class KeywordAutomaton {
+    private static final int ROOT = 0;
+    private static final int[] NO_VALUES = new int[0];
+    // boundaries of the word to check around the keyword
+    private static final byte WORD_START = 1;
+    private static final byte WORD_END = 2;
+
+    // transitions of the trie: edges of the state are sorted by char
+    private final int[] edgeStarts;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    // state to go when there is no edge
+    private final int[] failures;
+    // values of the keywords ending at the state
+    private final int[] valueStarts;
+    private final int[] values;
+    // nearest state in the failures chain having values (or ROOT)
+    private final int[] outputs;
+    // length of the keyword and the boundaries to check, by state
+    private final int[] depths;
+    private final byte[] bounds;
+    // count of the last chars of the text kept to check the word starts (0 if not needed)
+    private final int historySize;
+
+    private KeywordAutomaton(Builder builder) {
+        int count = builder.edges.size();
+        edgeStarts = new int[count + 1];
+        int edgesCount = 0;
+        for (TreeMap<Character, Integer> edges : builder.edges) {
+            edgesCount += edges.size();
+        }
+        edgeChars = new char[edgesCount];
+        edgeTargets = new int[edgesCount];
+        int e = 0;
+        for (int state = 0; state < count; state++) {
+            edgeStarts[state] = e;
+            for (Map.Entry<Character, Integer> edge : builder.edges.get(state).entrySet()) {
+                edgeChars[e] = edge.getKey();
+                edgeTargets[e++] = edge.getValue();
+            }
+        }
+        edgeStarts[count] = e;
+
+        valueStarts = new int[count + 1];
+        int valuesCount = 0;
+        for (List<Integer> list : builder.values) {
+            valuesCount += list.size();
+        }
+        values = new int[valuesCount];
+        int v = 0;
+        for (int state = 0; state < count; state++) {
+            valueStarts[state] = v;
+            for (int value : builder.values.get(state)) {
+                values[v++] = value;
+            }
+        }
+        valueStarts[count] = v;
+
+        depths = new int[count];
+        bounds = new byte[count];
+        int maxDepth = 0;
+        boolean starts = false;
+        for (int state = 0; state < count; state++) {
+            depths[state] = builder.depths.get(state);
+            bounds[state] = builder.bounds.get(state);
+            maxDepth = Math.max(maxDepth, depths[state]);
+            starts |= (bounds[state] & WORD_START) != 0;
+        }
+        historySize = (starts ? maxDepth + 1 : 0);
+
+        // failure links are computed in breadth-first order of the trie
+        failures = new int[count];
+        outputs = new int[count];
+        int[] queue = new int[count];
+        int head = 0, tail = 0;
+        for (int i = edgeStarts[ROOT]; i < edgeStarts[ROOT + 1]; i++) {
+            queue[tail++] = edgeTargets[i];
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            for (int i = edgeStarts[state]; i < edgeStarts[state + 1]; i++) {
+                int target = edgeTargets[i];
+                int failure = next(failures[state], edgeChars[i]);
+                failures[target] = failure;
+                outputs[target] = (hasValues(failure) ? failure : outputs[failure]);
+                queue[tail++] = target;
+            }
+        }
+    }
+
+    /**
+     * Returns the values of the keywords found in the text, in order of their ends
+     * and without repeats. Returns empty array if there are no ones.
+     */
+    public int[] match(@NonNull CharSequence text) {
+        int[] result = NO_VALUES;
+        int count = 0;
+        int state = ROOT;
+        char previous = ' ';
+        char[] history = (historySize == 0 ? null : new char[historySize]);
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = normalize(text.charAt(i));
+            if (c == ' ' && previous == ' ') {
+                continue;
+            }
+            previous = c;
+            if (history != null) {
+                history[length % historySize] = c;
+            }
+            length++;
+            state = next(state, c);
+            for (int s = state; s != ROOT; s = outputs[s]) {
+                if (bounds[s] != 0 && !isBounded(s, text, i, history, length)) {
+                    continue;
+                }
+                for (int j = valueStarts[s]; j < valueStarts[s + 1]; j++) {
+                    if (!contains(result, count, values[j])) {
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, Math.max(4, count * 2));
+                        }
+                        result[count++] = values[j];
+                    }
+                }
+            }
+        }
+        return (count == result.length ? result : Arrays.copyOf(result, count));
+    }
+
+    /**
+     * Returns true if any keyword is found in the text
+     */
+    public boolean matches(@NonNull CharSequence text) {
+        int state = ROOT;
+        char previous = ' ';
+        char[] history = (historySize == 0 ? null : new char[historySize]);
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = normalize(text.charAt(i));
+            if (c == ' ' && previous == ' ') {
+                continue;
+            }
+            previous = c;
+            if (history != null) {
+                history[length % historySize] = c;
+            }
+            length++;
+            state = next(state, c);
+            for (int s = state; s != ROOT; s = outputs[s]) {
+                if (hasValues(s) && (bounds[s] == 0 || isBounded(s, text, i, history, length))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Checks the word boundaries around the keyword of the state ending at the char
+    // of the text. The history keeps the last normalized chars, length is their count.
+    private boolean isBounded(int state, CharSequence text, int end,
+                              char[] history, int length) {
+        if ((bounds[state] & WORD_END) != 0 && end + 1 < text.length() &&
+                isWordChar(text.charAt(end + 1))) {
+            return false;
+        }
+        if ((bounds[state] & WORD_START) != 0) {
+            int before = length - depths[state] - 1;
+            if (before >= 0 && isWordChar(history[before % historySize])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * Returns the count of the states
+     */
+    public int size() {
+        return failures.length;
+    }
+
+    /**
+     * Returns the estimated retained heap size
+     */
+    public long estimateBytes() {
+        return MemorySizes.OBJECT + MemorySizes.array(edgeStarts.length, 4) +
+                MemorySizes.array(edgeChars.length, 2) + MemorySizes.array(edgeTargets.length, 4) +
+                MemorySizes.array(failures.length, 4) * 2 + MemorySizes.array(valueStarts.length, 4) +
+                MemorySizes.array(values.length, 4) + MemorySizes.array(depths.length, 4) +
+                MemorySizes.array(bounds.length, 1);
+    }
+
+    // Returns the state reached from the passed one by the char
+    private int next(int state, char c) {
+        while (true) {
+            int i = Arrays.binarySearch(edgeChars, edgeStarts[state], edgeStarts[state + 1], c);
+            if (i >= 0) {
+                return edgeTargets[i];
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failures[state];
+        }
+    }
+
+    private boolean hasValues(int state) {
+        return valueStarts[state] < valueStarts[state + 1];
+    }
+
+    private static boolean contains(int[] array, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (array[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static char normalize(char c) {
+        return (Character.isWhitespace(c) ? ' ' : Character.toLowerCase(c));
+    }
+
+    /**
+     * Collects the keywords and builds the automaton
+     */
+    public static class Builder {
+        // the trie under construction
+        private final List<TreeMap<Character, Integer>> edges = new ArrayList<>();
+        private final List<List<Integer>> values = new ArrayList<>();
+        private final List<Integer> depths = new ArrayList<>();
+        private final List<Byte> bounds = new ArrayList<>();
+        private final boolean wholeWords;
+
+        public Builder() {
+            this(false);
+        }
+
+        /**
+         * Creates the builder of the automaton matching the keywords as whole words
+         * (if wholeWords is true) or anywhere in the text
+         */
+        public Builder(boolean wholeWords) {
+            this.wholeWords = wholeWords;
+            addState(0);
+        }
+
+        /**
+         * Adds the keyword (or phrase) with the value returned on matching.
+         * Returns false if the keyword is blank.
+         */
+        public boolean add(@NonNull String keyword, int value) {
+            keyword = keyword.trim();
+            if (keyword.isEmpty()) {
+                return false;
+            }
+            int state = ROOT;
+            char previous = ' ';
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = normalize(keyword.charAt(i));
+                if (c == ' ' && previous == ' ') {
+                    continue;
+                }
+                previous = c;
+                Integer target = edges.get(state).get(c);
+                if (target == null) {
+                    target = addState(depths.get(state) + 1);
+                    edges.get(state).put(c, target);
+                }
+                state = target;
+            }
+            values.get(state).add(value);
+            if (wholeWords) {
+                // the path to the state is the same for all its keywords
+                byte flags = 0;
+                if (isWordChar(keyword.charAt(0))) {
+                    flags |= WORD_START;
+                }
+                if (isWordChar(keyword.charAt(keyword.length() - 1))) {
+                    flags |= WORD_END;
+                }
+                bounds.set(state, flags);
+            }
+            return true;
+        }
+
+        private int addState(int depth) {
+            edges.add(new TreeMap<Character, Integer>());
+            values.add(new ArrayList<Integer>(1));
+            depths.add(depth);
+            bounds.add((byte) 0);
+            return edges.size() - 1;
+        }
+
+        public KeywordAutomaton build() {
+            return new KeywordAutomaton(this);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressed hash map of primitive long keys to long values.
+ * Keeps the entries in two flat arrays without boxing and per entry objects.
+ * Negative keys are reserved. Isn't thread-safe.
+ */
+public class LongLongMap {
+    private static final long FREE = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] values;
+    private int mask;
+    private int size = 0;
+
+    public LongLongMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    public LongLongMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Returns the value of the key or the default value if there is no such key
+     */
+    public long get(long key, long defaultValue) {
+        int i = find(key);
+        return (keys[i] == FREE ? defaultValue : values[i]);
+    }
+
+    public boolean containsKey(long key) {
+        return keys[find(key)] != FREE;
+    }
+
+    /**
+     * Puts the value of the key and returns the previous one or the default value
+     */
+    public long put(long key, long value, long defaultValue) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key " + key);
+        }
+        int i = find(key);
+        if (keys[i] != FREE) {
+            long previous = values[i];
+            values[i] = value;
+            return previous;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return defaultValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the estimated retained heap size
+     */
+    public long estimateBytes() {
+        return MemorySizes.OBJECT + MemorySizes.array(keys.length, 8) * 2;
+    }
+
+    /**
+     * Returns the keys of the map in unspecified order
+     */
+    public long[] keys() {
+        long[] result = new long[size];
+        int j = 0;
+        for (long key : keys) {
+            if (key != FREE) {
+                result[j++] = key;
+            }
+        }
+        return result;
+    }
+
+    // Returns the slot of the key or the free slot where it should be put
+    private int find(long key) {
+        int i = hash(key) & mask;
+        while (keys[i] != FREE && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != FREE) {
+                int i = find(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, FREE);
+        mask = capacity - 1;
+    }
+
+    // Returns the power of two capacity keeping the load factor below 0.5
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // Spreads the bits of the sequential keys (mixer of MurmurHash3)
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ch.silence.utils;
+
+/**
+ * In-process structure which memory is accounted, see MemoryAccounting
+ */
+public interface MemoryAccountable {
+    int getEntriesCount();
+
+    // estimated retained heap size
+    long getRetainedBytes();
+
+    /**
+     * Releases the memory which can be rebuilt on demand or done without
+     * (maybe slower). Returns the estimated count of the released bytes.
+     */
+    long trim();
+
+    /**
+     * Undoes the degradation made by the trimming (if any), is called
+     * when the structure fits the budget again
+     */
+    void restore();
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Debug;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounting of the memory of the in-process structures the blocker keeps.
+ * Reports their entries counts, estimated retained bytes and the allocations per
+ * decision. When the total exceeds the budget, the structures are degraded: the
+ * optional ones are suspended, the caches are shrunk and the indexes fall back to
+ * the database. The structures the decisions are made by are released on the
+ * system memory pressure only.
+ */
+public class MemoryAccounting {
+    private static final String TAG = MemoryAccounting.class.getName();
+    private static final String DUMP_FILE = "memory.json";
+    // part of the heap limit of the application used as the default budget
+    private static final int DEFAULT_BUDGET_PART = 16;
+
+    private static final MemoryAccounts accounts = new MemoryAccounts();
+    private static volatile boolean registered = false;
+
+    // allocations are counted while tracking is on
+    private static volatile boolean tracking = false;
+    private static final AtomicLong trackedDecisions = new AtomicLong();
+    private static final AtomicLong allocations = new AtomicLong();
+    private static final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * Registers the structure to account
+     */
+    public static void register(@NonNull String name, int priority,
+                                @NonNull MemoryAccountable accountable) {
+        accounts.register(name, priority, accountable);
+    }
+
+    // Registers the structures of the blocker (once)
+    private static void registerDefaults(Context context) {
+        if (registered) {
+            return;
+        }
+        synchronized (MemoryAccounting.class) {
+            if (registered) {
+                return;
+            }
+            register("settings", MemoryAccounts.PRIORITY_ESSENTIAL, Settings.MEMORY);
+            register("permissions", MemoryAccounts.PRIORITY_ESSENTIAL, Permissions.MEMORY);
+            register("profiles", MemoryAccounts.PRIORITY_ESSENTIAL, Profiles.MEMORY);
+            register("keywords", MemoryAccounts.PRIORITY_ESSENTIAL, SmsFilter.MEMORY);
+            DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+            if (db != null) {
+                register("compiled_rules", MemoryAccounts.PRIORITY_ESSENTIAL, db.compiledRulesMemory);
+            }
+            register("correspondents", MemoryAccounts.PRIORITY_INDEX,
+                    CorrespondentsIndex.getInstance(context));
+            register("decision_cache", MemoryAccounts.PRIORITY_CACHE, CallFilter.decisionCache);
+            register("shadow_matcher", MemoryAccounts.PRIORITY_OPTIONAL, ShadowEngine.MEMORY);
+            registered = true;
+        }
+    }
+
+    /**
+     * Returns the budget in bytes from the settings or the default one
+     */
+    public static long getBudget(Context context) {
+        String value = Settings.getStringValue(context, Settings.MEMORY_BUDGET);
+        if (value != null) {
+            try {
+                long budget = Long.parseLong(value);
+                if (budget > 0) {
+                    return budget;
+                }
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return manager.getMemoryClass() * 1024L * 1024L / DEFAULT_BUDGET_PART;
+    }
+
+    /**
+     * Degrades the structures if their total exceeds the budget and trimming can
+     * bring it back, or restores the degraded ones if they fit it again. Isn't
+     * checked until the warming up is done. Returns the count of the trimmed structures.
+     */
+    public static int checkBudget(Context context) {
+        // the structures are being built by the warming up yet
+        if (!WarmUp.isReady()) {
+            return 0;
+        }
+        registerDefaults(context);
+        long budget = getBudget(context);
+        long retained = accounts.getRetainedBytes();
+        if (retained <= budget) {
+            accounts.restoreToBudget(budget);
+            return 0;
+        }
+        // the essential ones alone exceed the budget, trimming the rest won't help
+        long trimmable = accounts.getRetainedBytes(MemoryAccounts.PRIORITY_ESSENTIAL);
+        if (retained - trimmable > budget) {
+            return 0;
+        }
+        int count = accounts.trimToBudget(budget, MemoryAccounts.PRIORITY_ESSENTIAL);
+        for (int i = 0; i < count; i++) {
+            Metrics.increment(Metrics.MEMORY_TRIMS);
+        }
+        Log.w(TAG, "Memory budget is exceeded, " + count + " structures are trimmed");
+        return count;
+    }
+
+    /**
+     * Releases the structures on the system memory pressure. The essential
+     * ones are released only if the process is likely to be killed.
+     */
+    public static void trim(Context context, boolean essential) {
+        registerDefaults(context);
+        int count = accounts.trimToBudget(0, essential ?
+                Integer.MAX_VALUE : MemoryAccounts.PRIORITY_ESSENTIAL);
+        for (int i = 0; i < count; i++) {
+            Metrics.increment(Metrics.MEMORY_TRIMS);
+        }
+    }
+
+    /**
+     * Turns the counting of the allocations per decision on/off.
+     * Counting slows down the process, so it's for debugging only.
+     */
+    @SuppressWarnings("deprecation")
+    public static void setAllocationTracking(boolean enabled) {
+        if (enabled == tracking) {
+            return;
+        }
+        if (enabled) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+        tracking = enabled;
+    }
+
+    public static boolean isAllocationTracking() {
+        return tracking;
+    }
+
+    /**
+     * Returns the count of the objects allocated by the thread (if tracking is on)
+     */
+    @SuppressWarnings("deprecation")
+    public static long getThreadAllocCount() {
+        return (tracking ? Debug.getThreadAllocCount() : 0);
+    }
+
+    /**
+     * Returns the count of the bytes allocated by the thread (if tracking is on)
+     */
+    @SuppressWarnings("deprecation")
+    public static long getThreadAllocSize() {
+        return (tracking ? Debug.getThreadAllocSize() : 0);
+    }
+
+    /**
+     * Counts the allocations of the decision since the passed counters values
+     */
+    public static void recordDecision(long allocCountBefore, long allocSizeBefore) {
+        if (!tracking) {
+            return;
+        }
+        trackedDecisions.incrementAndGet();
+        allocations.addAndGet(getThreadAllocCount() - allocCountBefore);
+        allocatedBytes.addAndGet(getThreadAllocSize() - allocSizeBefore);
+    }
+
+    /**
+     * Returns the report of the accounting
+     */
+    public static JSONObject toJson(Context context) throws JSONException {
+        registerDefaults(context);
+        JSONObject json = new JSONObject();
+        json.put("budget", getBudget(context));
+        long total = 0;
+        JSONArray structures = new JSONArray();
+        for (MemoryAccounts.Account account : accounts.getAccounts()) {
+            long bytes = account.accountable.getRetainedBytes();
+            total += bytes;
+            JSONObject structure = new JSONObject();
+            structure.put("name", account.name);
+            structure.put("priority", account.priority);
+            structure.put("entries", account.accountable.getEntriesCount());
+            structure.put("bytes", bytes);
+            structures.put(structure);
+        }
+        json.put("retained", total);
+        json.put("structures", structures);
+
+        JSONObject decisions = new JSONObject();
+        long count = trackedDecisions.get();
+        decisions.put("tracking", tracking);
+        decisions.put("count", count);
+        decisions.put("allocations", (count == 0 ? 0 : allocations.get() / count));
+        decisions.put("allocated_bytes", (count == 0 ? 0 : allocatedBytes.get() / count));
+        json.put("per_decision", decisions);
+
+        Runtime runtime = Runtime.getRuntime();
+        JSONObject heap = new JSONObject();
+        heap.put("used", runtime.totalMemory() - runtime.freeMemory());
+        heap.put("max", runtime.maxMemory());
+        json.put("heap", heap);
+        json.put("trims", Metrics.get(Metrics.MEMORY_TRIMS));
+        json.put("shadow", ShadowEngine.toJson(context));
+        return json;
+    }
+
+    /**
+     * Writes the report to the file of the application and returns it
+     */
+    public static File dump(Context context) throws IOException, JSONException {
+        File file = new File(context.getFilesDir(), DUMP_FILE);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(toJson(context).toString(2).getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
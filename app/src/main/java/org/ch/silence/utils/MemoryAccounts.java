@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registry of the accounted structures with the priorities of their trimming.
+ * When the budget is exceeded the structures are trimmed from the lowest
+ * priority, until the total fits the budget. They are restored from the highest
+ * priority when the bytes they released fit the budget again.
+ */
+public class MemoryAccounts {
+    // diagnostics, they are suspended on trimming
+    public static final int PRIORITY_OPTIONAL = 0;
+    // caches of the decisions, they are refilled
+    public static final int PRIORITY_CACHE = 1;
+    // indexes with the fallback to the database
+    public static final int PRIORITY_INDEX = 2;
+    // structures the decisions are made by, they are rebuilt at once on the next
+    // call, so they are trimmed on the system memory pressure only
+    public static final int PRIORITY_ESSENTIAL = 3;
+
+    /**
+     * Accounted structure
+     */
+    public static class Account {
+        public final String name;
+        public final int priority;
+        public final MemoryAccountable accountable;
+        // released by the trims since the last restoring (guarded by the accounts)
+        long releasedBytes = 0;
+
+        Account(String name, int priority, MemoryAccountable accountable) {
+            this.name = name;
+            this.priority = priority;
+            this.accountable = accountable;
+        }
+    }
+
+    // sorted by priority (guarded by this)
+    private final List<Account> accounts = new ArrayList<>();
+
+    /**
+     * Registers the structure (replaces the one with the same name)
+     */
+    public synchronized void register(@NonNull String name, int priority,
+                                      @NonNull MemoryAccountable accountable) {
+        for (int i = 0; i < accounts.size(); i++) {
+            if (accounts.get(i).name.equals(name)) {
+                accounts.remove(i);
+                break;
+            }
+        }
+        int i = 0;
+        while (i < accounts.size() && accounts.get(i).priority <= priority) {
+            i++;
+        }
+        accounts.add(i, new Account(name, priority, accountable));
+    }
+
+    /**
+     * Returns the accounts from the lowest priority
+     */
+    public synchronized List<Account> getAccounts() {
+        return new ArrayList<>(accounts);
+    }
+
+    public synchronized long getRetainedBytes() {
+        return getRetainedBytes(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the bytes of the structures with the priorities lower than the passed one
+     */
+    public synchronized long getRetainedBytes(int maxPriority) {
+        long bytes = 0;
+        for (Account account : accounts) {
+            if (account.priority >= maxPriority) {
+                break;
+            }
+            bytes += account.accountable.getRetainedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Trims the structures with the priorities lower than the passed one until the
+     * total fits the budget. Returns the count of the trimmed structures.
+     */
+    public synchronized int trimToBudget(long budget, int maxPriority) {
+        long bytes = getRetainedBytes();
+        int count = 0;
+        for (Account account : accounts) {
+            if (bytes <= budget || account.priority >= maxPriority) {
+                break;
+            }
+            long retained = account.accountable.getRetainedBytes();
+            if (retained > 0) {
+                account.accountable.trim();
+                long released = retained - account.accountable.getRetainedBytes();
+                account.releasedBytes += released;
+                bytes -= released;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Restores the trimmed structures from the highest priority while the bytes
+     * they released fit the budget. Returns the count of the restored structures.
+     */
+    public synchronized int restoreToBudget(long budget) {
+        long bytes = getRetainedBytes();
+        int count = 0;
+        for (int i = accounts.size() - 1; i >= 0; i--) {
+            Account account = accounts.get(i);
+            if (account.releasedBytes == 0) {
+                continue;
+            }
+            // the lower priorities wait for this one
+            if (bytes + account.releasedBytes > budget) {
+                break;
+            }
+            account.accountable.restore();
+            bytes += account.releasedBytes;
+            account.releasedBytes = 0;
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package org.ch.silence.utils;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Rough estimates of the retained heap sizes, assuming the 32-bit
+ * references and the objects aligned by 8 bytes
+ */
+public class MemorySizes {
+    public static final int REFERENCE = 4;
+    // header of the object with a few fields
+    public static final int OBJECT = 16;
+    // entry of the hash map and its slot in the table
+    public static final int MAP_ENTRY = 32 + 2 * REFERENCE;
+    // phone number of the typical length
+    public static final long NUMBER = string(12);
+
+    public static long array(int length, int elementBytes) {
+        return align(16 + (long) length * elementBytes);
+    }
+
+    public static long string(@Nullable String string) {
+        return (string == null ? 0 : string(string.length()));
+    }
+
+    public static long string(int length) {
+        return align(OBJECT + 8) + array(length, 2);
+    }
+
+    // Returns the size of the strings of the array and the array itself
+    public static long strings(String[] strings, int count) {
+        long bytes = array(strings.length, REFERENCE);
+        for (int i = 0; i < count; i++) {
+            bytes += string(strings[i]);
+        }
+        return bytes;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide counters of the blocker's events
+ */
+public class Metrics {
+    // Counters names
+    public static final String DUPLICATE_BROADCASTS = "DUPLICATE_BROADCASTS";
+    public static final String DECISION_CACHE_HITS = "DECISION_CACHE_HITS";
+    public static final String DROPPED_EVENTS = "DROPPED_EVENTS";
+    public static final String SHADOW_MISMATCHES = "SHADOW_MISMATCHES";
+    public static final String SHADOW_SKIPPED = "SHADOW_SKIPPED";
+    public static final String MEMORY_TRIMS = "MEMORY_TRIMS";
+
+    private static final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+
+    public static void increment(@NonNull String name) {
+        getCounter(name).incrementAndGet();
+    }
+
+    public static long get(@NonNull String name) {
+        AtomicLong counter = counters.get(name);
+        return (counter == null ? 0 : counter.get());
+    }
+
+    /**
+     * Returns the copy of all counters sorted by name
+     */
+    public static Map<String, Long> getAll() {
+        Map<String, Long> map = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().get());
+        }
+        return map;
+    }
+
+    private static AtomicLong getCounter(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            synchronized (counters) {
+                counter = counters.get(name);
+                if (counter == null) {
+                    counter = new AtomicLong();
+                    counters.put(name, counter);
+                }
+            }
+        }
+        return counter;
+    }
+}
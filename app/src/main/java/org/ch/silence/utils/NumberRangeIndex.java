@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Static interval tree of the phone number ranges (e.g. +1 555 0100 - +1 555 0199).
+ * Finds all ranges containing a number in O(log n + k).
+ * <p>
+ * Numbers are compared as keys made of the digits value, count of digits and
+ * the '+' sign, so the numbers of different length never fall into one range.
+ */
+public class NumberRangeIndex {
+    // Separator of the range bounds in the text form of the rule
+    public static final String SEPARATOR = "..";
+
+    private static final int MAX_DIGITS = 15;
+    private static final long DIGITS_FACTOR = 1000000000000000L;
+    private static final int[] NONE = new int[0];
+
+    // ranges sorted by start, the tree is implicit: the root of [lo, hi] is at (lo + hi) / 2
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] values;
+    // max end of the ranges of the subtree
+    private final long[] maxEnds;
+
+    private NumberRangeIndex(long[] starts, long[] ends, int[] values) {
+        this.starts = starts;
+        this.ends = ends;
+        this.values = values;
+        this.maxEnds = new long[starts.length];
+        computeMaxEnds(0, starts.length - 1);
+    }
+
+    private long computeMaxEnds(int lo, int hi) {
+        if (lo > hi) {
+            return Long.MIN_VALUE;
+        }
+        int mid = (lo + hi) >>> 1;
+        long max = Math.max(ends[mid], Math.max(computeMaxEnds(lo, mid - 1), computeMaxEnds(mid + 1, hi)));
+        maxEnds[mid] = max;
+        return max;
+    }
+
+    /**
+     * Returns values of all ranges containing the number key
+     */
+    @NonNull
+    public int[] query(long key) {
+        if (key < 0 || starts.length == 0 || maxEnds[(starts.length - 1) >>> 1] < key) {
+            return NONE;
+        }
+        Collector collector = new Collector();
+        query(key, 0, starts.length - 1, collector);
+        return collector.toArray();
+    }
+
+    private void query(long key, int lo, int hi, Collector collector) {
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (maxEnds[mid] < key) {
+                return;
+            }
+            query(key, lo, mid - 1, collector);
+            if (starts[mid] > key) {
+                // all ranges of the right subtree start after the key
+                return;
+            }
+            if (ends[mid] >= key) {
+                collector.add(values[mid]);
+            }
+            lo = mid + 1;
+        }
+    }
+
+    // Accumulator of the found values
+    private static class Collector {
+        int[] values = NONE;
+        int count = 0;
+
+        void add(int value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.max(4, count * 2));
+            }
+            values[count++] = value;
+        }
+
+        int[] toArray() {
+            return (count == values.length ? values : Arrays.copyOf(values, count));
+        }
+    }
+
+    /**
+     * Returns the count of the ranges
+     */
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Returns the estimated retained heap size
+     */
+    public long estimateBytes() {
+        return MemorySizes.OBJECT + MemorySizes.array(starts.length, 8) * 3 +
+                MemorySizes.array(values.length, 4);
+    }
+
+    /**
+     * Returns the key of the normalized number or -1 if it isn't digital
+     */
+    public static long toKey(@NonNull String number) {
+        int start = (number.startsWith("+") ? 1 : 0);
+        int digits = number.length() - start;
+        if (digits == 0 || digits > MAX_DIGITS) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return (start * (MAX_DIGITS + 1) + digits) * DIGITS_FACTOR + value;
+    }
+
+    /**
+     * Parses the text form of the range "from..to" (bounds are canonicalized).
+     * Returns the keys of the bounds or null if the range isn't valid.
+     */
+    @Nullable
+    public static long[] parse(@Nullable PhoneNumberCanonicalizer canonicalizer, @NonNull String range) {
+        int i = range.indexOf(SEPARATOR);
+        if (i < 0) {
+            return null;
+        }
+        String from = ContactsAccessHelper.normalizePhoneNumber(range.substring(0, i));
+        String to = ContactsAccessHelper.normalizePhoneNumber(range.substring(i + SEPARATOR.length()));
+        long fromKey = toKey(ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer, from));
+        long toKey = toKey(ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer, to));
+        if (fromKey < 0 || toKey < fromKey ||
+                fromKey / DIGITS_FACTOR != toKey / DIGITS_FACTOR) {
+            return null;
+        }
+        return new long[]{fromKey, toKey};
+    }
+
+    /**
+     * Collects the ranges and builds the index
+     */
+    public static class Builder {
+        private long[] starts = new long[16];
+        private long[] ends = new long[16];
+        private int[] values = new int[16];
+        private int count = 0;
+
+        /**
+         * Adds the range of keys with non negative value returned on matching
+         */
+        public Builder add(long from, long to, int value) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            starts[count] = from;
+            ends[count] = to;
+            values[count] = value;
+            count++;
+            return this;
+        }
+
+        public NumberRangeIndex build() {
+            // sort ranges by start
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    long x = starts[a], y = starts[b];
+                    return (x < y ? -1 : (x == y ? 0 : 1));
+                }
+            });
+            long[] sortedStarts = new long[count];
+            long[] sortedEnds = new long[count];
+            int[] sortedValues = new int[count];
+            for (int i = 0; i < count; i++) {
+                sortedStarts[i] = starts[order[i]];
+                sortedEnds[i] = ends[order[i]];
+                sortedValues[i] = values[order[i]];
+            }
+            return new NumberRangeIndex(sortedStarts, sortedEnds, sortedValues);
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deterministic automaton over the alphabet of phone numbers (digits and '+')
+ * compiled from a set of wildcard patterns. A number is checked against all
+ * the patterns at once, with one pass over its characters.
+ * <p>
+ * Patterns syntax (spaces, dashes and brackets are ignored):
+ * digit or '+' - the character itself,
+ * '?' - any digit,
+ * '*' - any sequence of digits (including empty one),
+ * '[0-35]' - any digit from the set (ranges are allowed).
+ * <p>
+ * Subset construction may blow up exponentially on the star patterns, so the
+ * count of the states is limited. Over the limit the patterns are matched one
+ * by one by simulation of their NFAs instead.
+ */
+public class PatternAutomaton {
+    private static final int ALPHABET = 11;
+    private static final int PLUS = 10;
+    private static final int DIGITS = (1 << 10) - 1;
+    private static final int DEAD = -1;
+    private static final int[] NONE = new int[0];
+    // maximal count of the DFA states
+    static final int MAX_STATES = 4096;
+
+    // transitions[state * ALPHABET + symbol] = next state or DEAD
+    private final int[] transitions;
+    // values of the patterns accepted in the state
+    private final int[][] accepted;
+    // parsed patterns and their values, if the DFA exceeds the states limit
+    private final int[][] patterns;
+    private final int[] values;
+
+    private PatternAutomaton(int[] transitions, int[][] accepted) {
+        this.transitions = transitions;
+        this.accepted = accepted;
+        this.patterns = null;
+        this.values = null;
+    }
+
+    private PatternAutomaton(int[][] patterns, int[] values) {
+        this.transitions = NONE;
+        this.accepted = new int[0][];
+        this.patterns = patterns;
+        this.values = values;
+    }
+
+    /**
+     * Returns values of the patterns the canonical or the local form of the number
+     * matches to, without repeats (patterns may be written in either form)
+     */
+    @NonNull
+    public int[] match(@NonNull String canonical, @NonNull String number) {
+        int[] matched = match(canonical);
+        if (canonical.equals(number)) {
+            return matched;
+        }
+        int[] local = match(number);
+        if (local.length == 0) {
+            return matched;
+        }
+        int[] result = Arrays.copyOf(matched, matched.length + local.length);
+        int count = matched.length;
+        for (int value : local) {
+            if (!contains(matched, value)) {
+                result[count++] = value;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Returns values of all patterns the number matches to (don't modify the array)
+     */
+    @NonNull
+    public int[] match(@NonNull String number) {
+        if (patterns != null) {
+            return matchEach(number);
+        }
+        if (accepted.length == 0) {
+            return NONE;
+        }
+        int state = 0;
+        for (int i = 0; i < number.length(); i++) {
+            int symbol = symbol(number.charAt(i));
+            if (symbol < 0) {
+                return NONE;
+            }
+            state = transitions[state * ALPHABET + symbol];
+            if (state == DEAD) {
+                return NONE;
+            }
+        }
+        return accepted[state];
+    }
+
+    // Matches the number against each of the patterns
+    private int[] matchEach(String number) {
+        int[] result = NONE;
+        int count = 0;
+        for (int p = 0; p < patterns.length; p++) {
+            if (matches(patterns[p], number)) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, Math.max(4, count * 2));
+                }
+                result[count++] = values[p];
+            }
+        }
+        return (count == result.length ? result : Arrays.copyOf(result, count));
+    }
+
+    // Simulates NFA of the pattern, its states are the positions in the pattern
+    private static boolean matches(int[] elements, String number) {
+        boolean[] current = new boolean[elements.length + 1];
+        boolean[] next = new boolean[elements.length + 1];
+        current[0] = true;
+        closure(elements, current);
+        for (int i = 0; i < number.length(); i++) {
+            int symbol = symbol(number.charAt(i));
+            if (symbol < 0) {
+                return false;
+            }
+            int bit = 1 << symbol;
+            boolean alive = false;
+            Arrays.fill(next, false);
+            for (int position = 0; position < elements.length; position++) {
+                if (current[position] && (elements[position] & bit) != 0) {
+                    // star element may consume any count of symbols
+                    next[elements[position] < 0 ? position : position + 1] = true;
+                    alive = true;
+                }
+            }
+            if (!alive) {
+                return false;
+            }
+            closure(elements, next);
+            boolean[] swap = current;
+            current = next;
+            next = swap;
+        }
+        return current[elements.length];
+    }
+
+    private static boolean contains(int[] array, int value) {
+        for (int item : array) {
+            if (item == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Adds the positions reachable by skipping of the star elements
+    private static void closure(int[] elements, boolean[] positions) {
+        for (int position = 0; position < elements.length; position++) {
+            if (positions[position] && elements[position] < 0) {
+                positions[position + 1] = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the count of the automaton states
+     */
+    public int size() {
+        return accepted.length;
+    }
+
+    /**
+     * Returns false if the patterns exceeded the states limit and are matched one by one
+     */
+    public boolean isDeterministic() {
+        return patterns == null;
+    }
+
+    /**
+     * Returns the estimated retained heap size
+     */
+    public long estimateBytes() {
+        if (patterns != null) {
+            long bytes = MemorySizes.OBJECT + MemorySizes.array(values.length, 4) +
+                    MemorySizes.array(patterns.length, MemorySizes.REFERENCE);
+            for (int[] elements : patterns) {
+                bytes += MemorySizes.array(elements.length, 4);
+            }
+            return bytes;
+        }
+        long bytes = MemorySizes.OBJECT + MemorySizes.array(transitions.length, 4) +
+                MemorySizes.array(accepted.length, MemorySizes.REFERENCE);
+        for (int[] values : accepted) {
+            if (values != NONE) {
+                bytes += MemorySizes.array(values.length, 4);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Checks whether the pattern has a valid syntax
+     */
+    public static boolean isValid(@NonNull String pattern) {
+        return parse(pattern) != null;
+    }
+
+    private static int symbol(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        return (c == '+' ? PLUS : -1);
+    }
+
+    // Parses pattern to the masks of symbols, star elements are marked with the sign bit
+    private static int[] parse(String pattern) {
+        int[] elements = new int[pattern.length()];
+        int count = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            int mask;
+            switch (c) {
+                case ' ':
+                case '-':
+                case '(':
+                case ')':
+                    continue;
+                case '?':
+                    mask = DIGITS;
+                    break;
+                case '*':
+                    mask = DIGITS | Integer.MIN_VALUE;
+                    break;
+                case '[':
+                    int end = pattern.indexOf(']', i);
+                    if (end < 0) {
+                        return null;
+                    }
+                    mask = parseSet(pattern.substring(i + 1, end));
+                    if (mask == 0) {
+                        return null;
+                    }
+                    i = end;
+                    break;
+                default:
+                    int symbol = symbol(c);
+                    if (symbol < 0) {
+                        return null;
+                    }
+                    mask = 1 << symbol;
+            }
+            elements[count++] = mask;
+        }
+        if (count == 0) {
+            return null;
+        }
+        int[] result = new int[count];
+        System.arraycopy(elements, 0, result, 0, count);
+        return result;
+    }
+
+    // Parses set of digits like "0-35"
+    private static int parseSet(String set) {
+        int mask = 0;
+        for (int i = 0; i < set.length(); i++) {
+            int from = symbol(set.charAt(i));
+            if (from < 0 || from == PLUS) {
+                return 0;
+            }
+            int to = from;
+            if (i + 2 < set.length() && set.charAt(i + 1) == '-') {
+                to = symbol(set.charAt(i + 2));
+                if (to < from || to == PLUS) {
+                    return 0;
+                }
+                i += 2;
+            }
+            for (int d = from; d <= to; d++) {
+                mask |= 1 << d;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Collects the patterns and compiles them to the automaton
+     */
+    public static class Builder {
+        private final List<int[]> patterns = new ArrayList<>();
+        private final List<Integer> values = new ArrayList<>();
+        // first NFA state of each pattern and the pattern of each NFA state
+        private int[] offsets;
+        private int[] owners;
+
+        /**
+         * Adds the pattern with the value returned on matching.
+         * Returns false if pattern isn't valid.
+         */
+        public boolean add(@NonNull String pattern, int value) {
+            int[] elements = parse(pattern);
+            if (elements == null) {
+                return false;
+            }
+            patterns.add(elements);
+            values.add(value);
+            return true;
+        }
+
+        public PatternAutomaton build() {
+            if (patterns.isEmpty()) {
+                return new PatternAutomaton(new int[0], new int[0][]);
+            }
+
+            // NFA state is a position in a pattern, positions of all patterns are numbered in a row
+            offsets = new int[patterns.size() + 1];
+            for (int p = 0; p < patterns.size(); p++) {
+                offsets[p + 1] = offsets[p] + patterns.get(p).length + 1;
+            }
+            owners = new int[offsets[patterns.size()]];
+            for (int p = 0; p < patterns.size(); p++) {
+                for (int state = offsets[p]; state < offsets[p + 1]; state++) {
+                    owners[state] = p;
+                }
+            }
+
+            // subset construction
+            Map<BitSet, Integer> states = new HashMap<>();
+            List<BitSet> queue = new ArrayList<>();
+            List<int[]> accepted = new ArrayList<>();
+            int[] transitions = new int[ALPHABET * 16];
+
+            BitSet initial = new BitSet(offsets[patterns.size()]);
+            for (int p = 0; p < patterns.size(); p++) {
+                initial.set(offsets[p]);
+            }
+            closure(initial);
+            states.put(initial, 0);
+            queue.add(initial);
+
+            for (int s = 0; s < queue.size(); s++) {
+                if (queue.size() > MAX_STATES) {
+                    return buildFallback();
+                }
+                BitSet current = queue.get(s);
+                accepted.add(acceptedValues(current));
+                if ((s + 1) * ALPHABET > transitions.length) {
+                    transitions = grow(transitions);
+                }
+                for (int symbol = 0; symbol < ALPHABET; symbol++) {
+                    BitSet next = step(current, symbol);
+                    int target = DEAD;
+                    if (!next.isEmpty()) {
+                        Integer index = states.get(next);
+                        if (index == null) {
+                            index = queue.size();
+                            states.put(next, index);
+                            queue.add(next);
+                        }
+                        target = index;
+                    }
+                    transitions[s * ALPHABET + symbol] = target;
+                }
+            }
+
+            int[] result = new int[queue.size() * ALPHABET];
+            System.arraycopy(transitions, 0, result, 0, result.length);
+            return new PatternAutomaton(result, accepted.toArray(new int[accepted.size()][]));
+        }
+
+        // Patterns are kept as they are, to be matched one by one
+        private PatternAutomaton buildFallback() {
+            int[] result = new int[values.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = values.get(i);
+            }
+            return new PatternAutomaton(patterns.toArray(new int[patterns.size()][]), result);
+        }
+
+        private static int[] grow(int[] array) {
+            int[] result = new int[array.length * 2];
+            System.arraycopy(array, 0, result, 0, array.length);
+            return result;
+        }
+
+        // Adds to the set the states reachable by skipping of the star elements
+        private void closure(BitSet set) {
+            for (int state = set.nextSetBit(0); state >= 0; state = set.nextSetBit(state + 1)) {
+                int p = owners[state];
+                int[] elements = patterns.get(p);
+                int position = state - offsets[p];
+                while (position < elements.length && elements[position] < 0) {
+                    position++;
+                    set.set(offsets[p] + position);
+                }
+            }
+        }
+
+        private BitSet step(BitSet set, int symbol) {
+            BitSet next = new BitSet();
+            int bit = 1 << symbol;
+            for (int state = set.nextSetBit(0); state >= 0; state = set.nextSetBit(state + 1)) {
+                int p = owners[state];
+                int[] elements = patterns.get(p);
+                int position = state - offsets[p];
+                if (position < elements.length && (elements[position] & bit) != 0) {
+                    // star element may consume any count of symbols
+                    next.set(elements[position] < 0 ? state : state + 1);
+                }
+            }
+            closure(next);
+            return next;
+        }
+
+        // Returns values of the patterns which final positions are in the set
+        private int[] acceptedValues(BitSet set) {
+            int count = 0;
+            int[] result = null;
+            for (int state = set.nextSetBit(0); state >= 0; state = set.nextSetBit(state + 1)) {
+                int p = owners[state];
+                if (state == offsets[p + 1] - 1) {
+                    if (result == null) {
+                        result = new int[set.cardinality()];
+                    }
+                    result[count++] = values.get(p);
+                }
+            }
+            if (count == 0) {
+                return NONE;
+            }
+            int[] accepted = new int[count];
+            System.arraycopy(result, 0, accepted, 0, count);
+            return accepted;
+        }
+    }
+}
@@ -38,11 +38,43 @@ public class Permissions {
     private static final int REQUEST_CODE = (Permissions.class.hashCode() & 0xffff);
     private static final Map<String, Boolean> permissionsResults = new ConcurrentHashMap<>();
 
+    // results are checked again on demand
+    static final MemoryAccountable MEMORY = new MemoryAccountable() {
+        @Override
+        public int getEntriesCount() {
+            return permissionsResults.size();
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            long bytes = 0;
+            for (String permission : permissionsResults.keySet()) {
+                bytes += MemorySizes.MAP_ENTRY + MemorySizes.string(permission);
+            }
+            return bytes;
+        }
+
+        @Override
+        public long trim() {
+            long bytes = getRetainedBytes();
+            permissionsResults.clear();
+            return bytes;
+        }
+
+        @Override
+        public void restore() {
+            // is rebuilt on demand
+        }
+    };
+
     // Permissions names
     public static final String WRITE_EXTERNAL_STORAGE = "android.permission.WRITE_EXTERNAL_STORAGE";
     public static final String CALL_PHONE = "android.permission.CALL_PHONE";
     public static final String READ_PHONE_STATE = "android.permission.READ_PHONE_STATE";
     public static final String READ_CONTACTS = "android.permission.READ_CONTACTS";
+    public static final String READ_CALL_LOG = "android.permission.READ_CALL_LOG";
+    public static final String READ_SMS = "android.permission.READ_SMS";
+    public static final String RECEIVE_SMS = "android.permission.RECEIVE_SMS";
 
 
     /**
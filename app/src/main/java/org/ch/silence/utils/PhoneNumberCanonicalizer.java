@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lightweight offline converter of the normalized phone numbers to E.164 form
+ * (e.g. "015112345678" and "0049151..." in Germany become "+49151...").
+ * It isn't a comprehensive numbering plan, just the country calling codes with
+ * the trunk and international prefixes, which is enough to compare the numbers.
+ */
+public class PhoneNumberCanonicalizer {
+    // Country: ISO code, calling code, trunk prefix, international prefix,
+    // fixed length of the national number (0 if it is variable)
+    private static final String REGIONS =
+            "US:1:1:011:10;CA:1:1:011:10;DE:49:0:00:0;AT:43:0:00:0;CH:41:0:00:9;" +
+                    "FR:33:0:00:9;GB:44:0:00:10;IE:353:0:00:0;NL:31:0:00:9;BE:32:0:00:0;" +
+                    "LU:352::00:0;IT:39::00:0;ES:34::00:9;PT:351::00:9;PL:48::00:9;" +
+                    "CZ:420::00:9;SK:421:0:00:9;HU:36:06:00:0;RO:40:0:00:9;BG:359:0:00:0;" +
+                    "GR:30::00:10;SE:46:0:00:0;NO:47::00:8;DK:45::00:8;FI:358:0:00:0;" +
+                    "RU:7:8:810:10;KZ:7:8:810:10;UA:380:0:00:9;BY:375:8:810:9;TR:90:0:00:10;" +
+                    "IL:972:0:00:0;IN:91:0:00:10;CN:86:0:00:0;JP:81:0:010:0;KR:82:0:001:0;" +
+                    "AU:61:0:0011:9;NZ:64:0:00:0;BR:55:0:00:0;MX:52::00:10;AR:54:0:00:10;" +
+                    "ZA:27:0:00:9";
+
+    // Numbers shorter than this are considered as local or short service ones
+    private static final int MIN_NATIONAL_LENGTH = 6;
+
+    private static volatile Map<String, PhoneNumberCanonicalizer> regions = null;
+
+    private final String countryCode;
+    private final String trunkPrefix;
+    private final String internationalPrefix;
+    private final int nationalLength;
+
+    private PhoneNumberCanonicalizer(String countryCode, String trunkPrefix,
+                                     String internationalPrefix, int nationalLength) {
+        this.countryCode = countryCode;
+        this.trunkPrefix = trunkPrefix;
+        this.internationalPrefix = internationalPrefix;
+        this.nationalLength = nationalLength;
+    }
+
+    /**
+     * Returns canonicalizer for the region with passed ISO code or null if the region is unknown
+     */
+    @Nullable
+    public static PhoneNumberCanonicalizer forRegion(@Nullable String iso) {
+        if (iso == null) {
+            return null;
+        }
+        return getRegions().get(iso.toUpperCase(Locale.US));
+    }
+
+    // Parses the table of regions once
+    private static Map<String, PhoneNumberCanonicalizer> getRegions() {
+        Map<String, PhoneNumberCanonicalizer> map = regions;
+        if (map == null) {
+            synchronized (PhoneNumberCanonicalizer.class) {
+                map = regions;
+                if (map == null) {
+                    map = new HashMap<>();
+                    for (String region : REGIONS.split(";")) {
+                        String[] fields = region.split(":", -1);
+                        map.put(fields[0], new PhoneNumberCanonicalizer(fields[1],
+                                fields[2], fields[3], Integer.parseInt(fields[4])));
+                    }
+                    regions = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Converts the normalized phone number to E.164 form if it is possible,
+     * otherwise returns the number as is
+     */
+    @NonNull
+    public String canonicalize(@NonNull String number) {
+        if (number.isEmpty() || number.charAt(0) == '+' || !isDigital(number)) {
+            return number;
+        }
+        // number dialed with the international prefix
+        if (number.startsWith(internationalPrefix) &&
+                number.length() > internationalPrefix.length()) {
+            return "+" + number.substring(internationalPrefix.length());
+        }
+        // number dialed with the trunk prefix
+        if (!trunkPrefix.isEmpty() && number.startsWith(trunkPrefix)) {
+            String national = number.substring(trunkPrefix.length());
+            if (isNational(national)) {
+                return "+" + countryCode + national;
+            }
+        }
+        // number dialed without prefixes
+        if ((trunkPrefix.isEmpty() && isNational(number)) ||
+                (nationalLength > 0 && number.length() == nationalLength)) {
+            return "+" + countryCode + number;
+        }
+        return number;
+    }
+
+    private boolean isNational(String number) {
+        return (nationalLength > 0 ?
+                number.length() == nationalLength :
+                number.length() >= MIN_NATIONAL_LENGTH);
+    }
+
+    private static boolean isDigital(String number) {
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Silence profiles (work, night, driving, etc.) with their own rule sets.
+ * All profiles are compiled at once, so switching between them is just
+ * a swap of the reference to the active one.
+ */
+public class Profiles {
+    // id of the "no profile" state, when the global settings are used
+    public static final long NONE = 0;
+
+    private static volatile List<Profile> profiles = null;
+    private static volatile Profile active = null;
+    private static volatile boolean activeLoaded = false;
+
+    // profiles are recompiled on demand
+    static final MemoryAccountable MEMORY = new MemoryAccountable() {
+        @Override
+        public int getEntriesCount() {
+            int count = 0;
+            List<Profile> list = profiles;
+            if (list != null) {
+                for (Profile profile : list) {
+                    count += profile.matcher.size();
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            long bytes = 0;
+            List<Profile> list = profiles;
+            if (list != null) {
+                for (Profile profile : list) {
+                    bytes += MemorySizes.OBJECT + MemorySizes.string(profile.name) +
+                            profile.matcher.estimateBytes();
+                }
+            }
+            return bytes;
+        }
+
+        @Override
+        public long trim() {
+            long bytes = getRetainedBytes();
+            invalidate();
+            return bytes;
+        }
+
+        @Override
+        public void restore() {
+            // is rebuilt on demand
+        }
+    };
+
+    /**
+     * Compiled profile
+     */
+    public static class Profile {
+        public final long id;
+        public final String name;
+        public final boolean blockPrivate;
+        public final boolean blockNotContacts;
+        public final RuleMatcher matcher;
+
+        Profile(@NonNull DatabaseAccessHelper.ProfileItem item, @NonNull RuleMatcher matcher) {
+            this.id = item.id;
+            this.name = item.name;
+            this.blockPrivate = item.blockPrivate;
+            this.blockNotContacts = item.blockNotContacts;
+            this.matcher = matcher;
+        }
+
+        private Profile(@NonNull Profile profile, @NonNull RuleMatcher matcher) {
+            this.id = profile.id;
+            this.name = profile.name;
+            this.blockPrivate = profile.blockPrivate;
+            this.blockNotContacts = profile.blockNotContacts;
+            this.matcher = matcher;
+        }
+    }
+
+    /**
+     * Returns all compiled profiles
+     */
+    public static List<Profile> getProfiles(Context context) {
+        List<Profile> list = profiles;
+        if (list == null) {
+            synchronized (Profiles.class) {
+                list = profiles;
+                if (list == null) {
+                    list = compile(context);
+                    profiles = list;
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns the active profile or null if there is no one
+     */
+    @Nullable
+    public static Profile getActive(Context context) {
+        if (!activeLoaded) {
+            synchronized (Profiles.class) {
+                if (!activeLoaded) {
+                    String value = Settings.getStringValue(context, Settings.ACTIVE_PROFILE);
+                    active = find(getProfiles(context), parseId(value));
+                    activeLoaded = true;
+                }
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Returns the profile with passed id or null if there is no one
+     */
+    @Nullable
+    public static Profile get(Context context, long profileId) {
+        return find(getProfiles(context), profileId);
+    }
+
+    /**
+     * Activates the profile with passed id, or deactivates all of them if id is NONE
+     */
+    public static boolean activate(Context context, long profileId) {
+        Profile profile = find(getProfiles(context), profileId);
+        if (profileId != NONE && profile == null) {
+            return false;
+        }
+        if (!Settings.setStringValue(context, Settings.ACTIVE_PROFILE, String.valueOf(profileId))) {
+            return false;
+        }
+        synchronized (Profiles.class) {
+            active = profile;
+            activeLoaded = true;
+        }
+        return true;
+    }
+
+    /**
+     * Includes the contact of black/white list to the profile
+     */
+    public static boolean addContact(Context context, long profileId, long contactId) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db != null && db.addProfileContact(profileId, contactId)) {
+            invalidate();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Excludes the contact of black/white list from the profile
+     */
+    public static boolean removeContact(Context context, long profileId, long contactId) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db != null && db.deleteProfileContact(profileId, contactId)) {
+            invalidate();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops the compiled profiles after the lists were changed
+     */
+    public static void invalidate() {
+        synchronized (Profiles.class) {
+            profiles = null;
+            activeLoaded = false;
+        }
+    }
+
+    /**
+     * Applies the changes of the contact's numbers to the compiled profiles
+     * without recompiling them. The numbers of the delta are in the stored form.
+     */
+    public static void patch(Context context, long contactId, @NonNull BlockListDelta delta) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null) {
+            return;
+        }
+        DatabaseAccessHelper.ContactCursorWrapper cursor = db.getContact(contactId);
+        if (cursor == null) {
+            invalidate();
+            return;
+        }
+        DatabaseAccessHelper.Contact contact = cursor.getContact();
+        cursor.close();
+
+        synchronized (Profiles.class) {
+            List<Profile> list = profiles;
+            if (list == null) {
+                // will be compiled on demand
+                return;
+            }
+            List<Profile> patched = new ArrayList<>(list.size());
+            for (Profile profile : list) {
+                if (!db.isProfileContact(profile.id, contactId)) {
+                    patched.add(profile);
+                    continue;
+                }
+                RuleMatcher matcher = profile.matcher.patch(contactId, contact.name, contact.type, delta);
+                if (matcher == null) {
+                    invalidate();
+                    return;
+                }
+                patched.add(new Profile(profile, matcher));
+            }
+            profiles = Collections.unmodifiableList(patched);
+            if (activeLoaded && active != null) {
+                active = find(patched, active.id);
+            }
+        }
+    }
+
+    // Loads and compiles all profiles
+    private static List<Profile> compile(Context context) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null) {
+            return Collections.emptyList();
+        }
+        PhoneNumberCanonicalizer canonicalizer = ContactsAccessHelper.getCanonicalizer(context);
+        List<Profile> list = new ArrayList<>();
+        for (DatabaseAccessHelper.ProfileItem item : db.getProfiles()) {
+            RuleMatcher.Builder builder = new RuleMatcher.Builder(canonicalizer);
+            DatabaseAccessHelper.RuleCursorWrapper cursor = db.getRules(item.id);
+            if (cursor != null) {
+                builder.add(cursor);
+                cursor.close();
+            }
+            list.add(new Profile(item, builder.build()));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    @Nullable
+    private static Profile find(List<Profile> list, long profileId) {
+        for (Profile profile : list) {
+            if (profile.id == profileId) {
+                return profile;
+            }
+        }
+        return null;
+    }
+
+    private static long parseId(@Nullable String value) {
+        if (value != null) {
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return NONE;
+    }
+}
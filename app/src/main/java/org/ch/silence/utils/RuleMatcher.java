@@ -0,0 +1,446 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.ch.silence.utils.DatabaseAccessHelper.Contact;
+import org.ch.silence.utils.DatabaseAccessHelper.ContactNumber;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Precomputed in-memory lookup structure of the black/white lists rules.
+ * All pattern rules are compiled to one automaton, so they are checked in one pass,
+ * and the range rules are kept in the interval tree.
+ * The rules are held in primitive parallel arrays, so even very large lists fit
+ * in the heap of low-end devices. The contacts are created on matching only.
+ * Changes of the lists can be applied over the compiled rules without recompiling them.
+ * Is immutable once built and so can be shared between threads freely.
+ */
+public class RuleMatcher {
+    private static final int NONE = -1;
+    // changes count after which the rules should be recompiled
+    private static final int MIN_PATCH_LIMIT = 1024;
+
+    private final PhoneNumberCanonicalizer canonicalizer;
+    // contacts of the rules by index
+    private final long[] contactIds;
+    private final String[] contactNames;
+    private final int[] contactTypes;
+    // equality rules are keyed by the canonical form of the numbers, each key refers to
+    // the first entry of the chain of the contacts with such number
+    private final LongLongMap equals;
+    private final Map<String, Integer> equalsOther;
+    private final int[] entryContacts;
+    private final int[] entryNext;
+    private final Rules starts;
+    private final Rules ends;
+    private final Rules contains;
+    private final PatternAutomaton patterns;
+    private final int[] patternContacts;
+    private final String[] patternNumbers;
+    private final NumberRangeIndex ranges;
+    private final int[] rangeContacts;
+    private final String[] rangeNumbers;
+    // changes applied over the compiled rules, see patch()
+    private final Set<String> removed;
+    private final Map<String, Addition> additions;
+    @Nullable
+    private final RuleMatcher added;
+    // estimated retained heap size, is computed on demand
+    private volatile long bytes = -1;
+
+    private RuleMatcher(Builder builder) {
+        canonicalizer = builder.canonicalizer;
+        int count = builder.contactsCount;
+        contactIds = Arrays.copyOf(builder.contactIds, count);
+        contactNames = Arrays.copyOf(builder.contactNames, count);
+        contactTypes = Arrays.copyOf(builder.contactTypes, count);
+        equals = builder.equals;
+        equalsOther = builder.equalsOther;
+        entryContacts = Arrays.copyOf(builder.entryContacts, builder.entriesCount);
+        entryNext = Arrays.copyOf(builder.entryNext, builder.entriesCount);
+        starts = builder.starts.trim();
+        ends = builder.ends.trim();
+        contains = builder.contains.trim();
+        patterns = builder.patterns.build();
+        patternContacts = Arrays.copyOf(builder.patternContacts, builder.patternsCount);
+        patternNumbers = Arrays.copyOf(builder.patternNumbers, builder.patternsCount);
+        ranges = builder.ranges.build();
+        rangeContacts = Arrays.copyOf(builder.rangeContacts, builder.rangesCount);
+        rangeNumbers = Arrays.copyOf(builder.rangeNumbers, builder.rangesCount);
+        removed = Collections.emptySet();
+        additions = Collections.emptyMap();
+        added = null;
+    }
+
+    // Shares the compiled rules of the matcher with the new changes
+    private RuleMatcher(RuleMatcher base, Set<String> removed, Map<String, Addition> additions) {
+        canonicalizer = base.canonicalizer;
+        contactIds = base.contactIds;
+        contactNames = base.contactNames;
+        contactTypes = base.contactTypes;
+        equals = base.equals;
+        equalsOther = base.equalsOther;
+        entryContacts = base.entryContacts;
+        entryNext = base.entryNext;
+        starts = base.starts;
+        ends = base.ends;
+        contains = base.contains;
+        patterns = base.patterns;
+        patternContacts = base.patternContacts;
+        patternNumbers = base.patternNumbers;
+        ranges = base.ranges;
+        rangeContacts = base.rangeContacts;
+        rangeNumbers = base.rangeNumbers;
+        this.removed = removed;
+        this.additions = additions;
+        Builder builder = new Builder(canonicalizer);
+        for (Addition addition : additions.values()) {
+            builder.add(addition.number, addition.contactName, addition.contactType);
+        }
+        added = (additions.isEmpty() ? null : builder.build());
+    }
+
+    /**
+     * Returns the contacts which rules are matching to the normalized number
+     */
+    public List<Contact> match(@NonNull String number) {
+        List<Contact> result = null;
+        String canonical = ContactsAccessHelper.canonicalizePhoneNumber(canonicalizer, number);
+        long key = NumberRangeIndex.toKey(canonical);
+        int entry = NONE;
+        if (key >= 0) {
+            entry = (int) equals.get(key, NONE);
+        } else {
+            Integer first = equalsOther.get(canonical);
+            if (first != null) {
+                entry = first;
+            }
+        }
+        for (; entry != NONE; entry = entryNext[entry]) {
+            result = add(result, entryContacts[entry], ContactNumber.TYPE_EQUALS, canonical);
+        }
+        for (int i = 0; i < starts.count; i++) {
+            if (number.startsWith(starts.numbers[i])) {
+                result = add(result, starts.contacts[i], ContactNumber.TYPE_STARTS, starts.numbers[i]);
+            }
+        }
+        for (int i = 0; i < ends.count; i++) {
+            if (number.endsWith(ends.numbers[i])) {
+                result = add(result, ends.contacts[i], ContactNumber.TYPE_ENDS, ends.numbers[i]);
+            }
+        }
+        for (int i = 0; i < contains.count; i++) {
+            if (number.contains(contains.numbers[i])) {
+                result = add(result, contains.contacts[i], ContactNumber.TYPE_CONTAINS, contains.numbers[i]);
+            }
+        }
+        // patterns may be written for the canonical form as well as for the local one
+        for (int i : patterns.match(canonical, number)) {
+            result = add(result, patternContacts[i], ContactNumber.TYPE_PATTERN, patternNumbers[i]);
+        }
+        for (int i : ranges.query(key)) {
+            result = add(result, rangeContacts[i], ContactNumber.TYPE_RANGE, rangeNumbers[i]);
+        }
+        if (added != null) {
+            List<Contact> contacts = added.match(number);
+            if (!contacts.isEmpty()) {
+                if (result == null) {
+                    return contacts;
+                }
+                result.addAll(contacts);
+            }
+        }
+        return (result == null ? Collections.<Contact>emptyList() : result);
+    }
+
+    /**
+     * Returns the count of the rules
+     */
+    public int size() {
+        return compiledSize() - removed.size() + additions.size();
+    }
+
+    /**
+     * Returns the estimated retained heap size (the compiled rules shared with
+     * the patched matchers are counted by each of them)
+     */
+    public long estimateBytes() {
+        long result = bytes;
+        if (result < 0) {
+            result = MemorySizes.OBJECT +
+                    MemorySizes.array(contactIds.length, 8) +
+                    MemorySizes.strings(contactNames, contactNames.length) +
+                    MemorySizes.array(contactTypes.length, 4) +
+                    equals.estimateBytes() +
+                    equalsOther.size() * (MemorySizes.MAP_ENTRY + MemorySizes.NUMBER + MemorySizes.OBJECT) +
+                    MemorySizes.array(entryContacts.length, 4) * 2 +
+                    starts.estimateBytes() + ends.estimateBytes() + contains.estimateBytes() +
+                    patterns.estimateBytes() +
+                    MemorySizes.array(patternContacts.length, 4) +
+                    MemorySizes.strings(patternNumbers, patternNumbers.length) +
+                    ranges.estimateBytes() +
+                    MemorySizes.array(rangeContacts.length, 4) +
+                    MemorySizes.strings(rangeNumbers, rangeNumbers.length) +
+                    (removed.size() + additions.size()) * (MemorySizes.MAP_ENTRY + MemorySizes.NUMBER * 2) +
+                    (added == null ? 0 : added.estimateBytes());
+            bytes = result;
+        }
+        return result;
+    }
+
+    // Returns the count of the compiled rules
+    private int compiledSize() {
+        return entryContacts.length + starts.count + ends.count + contains.count +
+                patternContacts.length + rangeContacts.length;
+    }
+
+    /**
+     * Returns the matcher with the changes of the contact's rules applied over the
+     * compiled ones, or null if too many changes were accumulated and the rules
+     * should be recompiled. Numbers of the delta must be in the stored form.
+     */
+    @Nullable
+    public RuleMatcher patch(long contactId, @NonNull String contactName, int contactType,
+                             @NonNull BlockListDelta delta) {
+        Set<String> removed = new HashSet<>(this.removed);
+        Map<String, Addition> additions = new LinkedHashMap<>(this.additions);
+        for (BlockListDelta.Entry entry : delta.getRemoved()) {
+            String key = ruleKey(contactId, entry.type, entry.number);
+            if (additions.remove(key) == null) {
+                removed.add(key);
+            }
+        }
+        for (BlockListDelta.Entry entry : delta.getAdded()) {
+            String key = ruleKey(contactId, entry.type, entry.number);
+            // the compiled rule was removed before
+            if (!removed.remove(key)) {
+                additions.put(key, new Addition(new ContactNumber(0, entry.number, entry.type, contactId),
+                        contactName, contactType));
+            }
+        }
+        if (removed.size() + additions.size() > Math.max(MIN_PATCH_LIMIT, compiledSize() / 8)) {
+            return null;
+        }
+        return new RuleMatcher(this, removed, additions);
+    }
+
+    private static String ruleKey(long contactId, int type, String number) {
+        return contactId + ":" + type + ":" + number;
+    }
+
+    // Adds the contact of the matched rule if the rule wasn't removed
+    private List<Contact> add(List<Contact> list, int contact, int type, String number) {
+        if (!removed.isEmpty() && removed.contains(ruleKey(contactIds[contact], type, number))) {
+            return list;
+        }
+        if (list == null) {
+            list = new ArrayList<>(1);
+        }
+        list.add(new Contact(contactIds[contact], contactNames[contact], contactTypes[contact],
+                Collections.<ContactNumber>emptyList()));
+        return list;
+    }
+
+    // Rule added by the patch
+    private static class Addition {
+        final ContactNumber number;
+        final String contactName;
+        final int contactType;
+
+        Addition(ContactNumber number, String contactName, int contactType) {
+            this.number = number;
+            this.contactName = contactName;
+            this.contactType = contactType;
+        }
+    }
+
+    // Not equality rules in the parallel arrays
+    private static class Rules {
+        String[] numbers = new String[16];
+        int[] contacts = new int[16];
+        int count = 0;
+
+        void add(String number, int contact) {
+            if (count == numbers.length) {
+                numbers = Arrays.copyOf(numbers, count * 2);
+                contacts = Arrays.copyOf(contacts, count * 2);
+            }
+            numbers[count] = number;
+            contacts[count++] = contact;
+        }
+
+        long estimateBytes() {
+            return MemorySizes.strings(numbers, count) + MemorySizes.array(contacts.length, 4);
+        }
+
+        Rules trim() {
+            numbers = Arrays.copyOf(numbers, count);
+            contacts = Arrays.copyOf(contacts, count);
+            return this;
+        }
+    }
+
+    // Returns the array grown to fit the index
+    private static int[] ensure(int[] array, int index) {
+        return (index < array.length ? array : Arrays.copyOf(array, array.length * 2));
+    }
+
+    private static String[] ensure(String[] array, int index) {
+        return (index < array.length ? array : Arrays.copyOf(array, array.length * 2));
+    }
+
+    /**
+     * Collects the rules and compiles them to the matcher
+     */
+    public static class Builder {
+        private final PhoneNumberCanonicalizer canonicalizer;
+        private final LongLongMap contactIndexes = new LongLongMap();
+        private long[] contactIds = new long[16];
+        private String[] contactNames = new String[16];
+        private int[] contactTypes = new int[16];
+        private int contactsCount = 0;
+        private final LongLongMap equals = new LongLongMap();
+        private final Map<String, Integer> equalsOther = new HashMap<>();
+        private int[] entryContacts = new int[16];
+        private int[] entryNext = new int[16];
+        private int entriesCount = 0;
+        private final Rules starts = new Rules();
+        private final Rules ends = new Rules();
+        private final Rules contains = new Rules();
+        private final PatternAutomaton.Builder patterns = new PatternAutomaton.Builder();
+        private int[] patternContacts = new int[16];
+        private String[] patternNumbers = new String[16];
+        private int patternsCount = 0;
+        private final NumberRangeIndex.Builder ranges = new NumberRangeIndex.Builder();
+        private int[] rangeContacts = new int[16];
+        private String[] rangeNumbers = new String[16];
+        private int rangesCount = 0;
+
+        public Builder(@Nullable PhoneNumberCanonicalizer canonicalizer) {
+            this.canonicalizer = canonicalizer;
+        }
+
+        public Builder add(@NonNull ContactNumber number, @NonNull String contactName, int contactType) {
+            if (number.type == ContactNumber.TYPE_RANGE) {
+                long[] range = NumberRangeIndex.parse(canonicalizer, number.number);
+                if (range != null) {
+                    addRange(number, range[0], range[1], contactName, contactType);
+                }
+                return this;
+            }
+            int contact = getContact(number, contactName, contactType);
+            switch (number.type) {
+                case ContactNumber.TYPE_EQUALS:
+                    addEquals(ContactsAccessHelper.canonicalizePhoneNumber(
+                            canonicalizer, number.number), contact);
+                    break;
+                case ContactNumber.TYPE_STARTS:
+                    starts.add(number.number, contact);
+                    break;
+                case ContactNumber.TYPE_ENDS:
+                    ends.add(number.number, contact);
+                    break;
+                case ContactNumber.TYPE_CONTAINS:
+                    contains.add(number.number, contact);
+                    break;
+                case ContactNumber.TYPE_PATTERN:
+                    if (patterns.add(number.number, patternsCount)) {
+                        patternContacts = ensure(patternContacts, patternsCount);
+                        patternNumbers = ensure(patternNumbers, patternsCount);
+                        patternNumbers[patternsCount] = number.number;
+                        patternContacts[patternsCount++] = contact;
+                    }
+                    break;
+            }
+            return this;
+        }
+
+        // Prepends the contact to the chain of the canonical number
+        private void addEquals(String canonical, int contact) {
+            entryContacts = ensure(entryContacts, entriesCount);
+            entryNext = ensure(entryNext, entriesCount);
+            int entry = entriesCount++;
+            entryContacts[entry] = contact;
+            long key = NumberRangeIndex.toKey(canonical);
+            if (key >= 0) {
+                entryNext[entry] = (int) equals.put(key, entry, NONE);
+            } else {
+                Integer next = equalsOther.put(canonical, entry);
+                entryNext[entry] = (next == null ? NONE : next);
+            }
+        }
+
+        // Adds the range rule with bounds keys
+        private void addRange(ContactNumber number, long from, long to, String contactName, int contactType) {
+            ranges.add(from, to, rangesCount);
+            rangeContacts = ensure(rangeContacts, rangesCount);
+            rangeNumbers = ensure(rangeNumbers, rangesCount);
+            rangeNumbers[rangesCount] = number.number;
+            rangeContacts[rangesCount++] = getContact(number, contactName, contactType);
+        }
+
+        // Returns index of the contact shared by all its rules
+        private int getContact(ContactNumber number, String contactName, int contactType) {
+            int contact = (int) contactIndexes.get(number.contactId, NONE);
+            if (contact == NONE) {
+                contact = contactsCount++;
+                if (contact == contactIds.length) {
+                    contactIds = Arrays.copyOf(contactIds, contact * 2);
+                    contactNames = Arrays.copyOf(contactNames, contact * 2);
+                    contactTypes = Arrays.copyOf(contactTypes, contact * 2);
+                }
+                contactIds[contact] = number.contactId;
+                contactNames[contact] = contactName;
+                contactTypes[contact] = contactType;
+                contactIndexes.put(number.contactId, contact, NONE);
+            }
+            return contact;
+        }
+
+        public Builder add(@NonNull DatabaseAccessHelper.RuleCursorWrapper cursor) {
+            do {
+                ContactNumber number = cursor.getNumber();
+                if (number.type == ContactNumber.TYPE_RANGE) {
+                    // bounds are already parsed to the keys
+                    if (cursor.getRangeFrom() >= 0) {
+                        addRange(number, cursor.getRangeFrom(), cursor.getRangeTo(),
+                                cursor.getContactName(), cursor.getContactType());
+                    }
+                } else {
+                    add(number, cursor.getContactName(), cursor.getContactType());
+                }
+            } while (cursor.moveToNext());
+            return this;
+        }
+
+        public RuleMatcher build() {
+            return new RuleMatcher(this);
+        }
+    }
+}
@@ -29,12 +29,49 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class Settings {
     public static final String ENABLE_WHITELIST = "ENABLE_WHITELIST";
+    public static final String ACTIVE_PROFILE = "ACTIVE_PROFILE";
+    public static final String SUBSCRIPTION_POLICIES = "SUBSCRIPTION_POLICIES";
+    public static final String BLOCK_NOT_CORRESPONDENTS = "BLOCK_NOT_CORRESPONDENTS";
+    public static final String SHADOW_MODE = "SHADOW_MODE";
+    public static final String MEMORY_BUDGET = "MEMORY_BUDGET";
+    public static final String CALL_LOG_LAST_ID = "CALL_LOG_LAST_ID";
+    public static final String SMS_LAST_ID = "SMS_LAST_ID";
 
     private static final String TRUE = "TRUE";
     private static final String FALSE = "FALSE";
 
     private static Map<String, String> settingsMap = new ConcurrentHashMap<>();
 
+    // values are reloaded from the database on demand
+    static final MemoryAccountable MEMORY = new MemoryAccountable() {
+        @Override
+        public int getEntriesCount() {
+            return settingsMap.size();
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            long bytes = 0;
+            for (Map.Entry<String, String> entry : settingsMap.entrySet()) {
+                bytes += MemorySizes.MAP_ENTRY + MemorySizes.string(entry.getKey()) +
+                        MemorySizes.string(entry.getValue());
+            }
+            return bytes;
+        }
+
+        @Override
+        public long trim() {
+            long bytes = getRetainedBytes();
+            invalidate();
+            return bytes;
+        }
+
+        @Override
+        public void restore() {
+            // is rebuilt on demand
+        }
+    };
+
     public static boolean setStringValue(Context context, @NonNull String name, @NonNull String value) {
         DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
         if (db != null && db.setSettingsValue(name, value)) {
@@ -44,6 +81,18 @@ public class Settings {
         return false;
     }
 
+    /**
+     * Sets the value of the internal state, which doesn't invalidate the decisions
+     */
+    public static boolean setStateValue(Context context, @NonNull String name, @NonNull String value) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db != null && db.setStateValue(name, value)) {
+            settingsMap.put(name, value);
+            return true;
+        }
+        return false;
+    }
+
     @Nullable
     public static String getStringValue(Context context, @NonNull String name) {
         String value = settingsMap.get(name);
@@ -59,6 +108,23 @@ public class Settings {
         return value;
     }
 
+    /**
+     * Loads all settings values to the cache
+     */
+    public static void preload(Context context) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db != null) {
+            settingsMap.putAll(db.getSettingsValues());
+        }
+    }
+
+    /**
+     * Drops the cached values after the settings were replaced in the database
+     */
+    public static void invalidate() {
+        settingsMap.clear();
+    }
+
     public static boolean setBooleanValue(Context context, @NonNull String name, boolean value) {
         String v = (value ? TRUE : FALSE);
         return setStringValue(context, name, v);
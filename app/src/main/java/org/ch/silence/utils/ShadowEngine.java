@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shadow mode of the rules matching for the safe rollout of the new matchers.
+ * The calls are still decided by the primary engine (SQL queries over the lists),
+ * while the same numbers are matched by the secondary one (the compiled RuleMatcher)
+ * in background. Mismatches of their results and the gap of their latencies are
+ * written to the bounded log, which is reported to memory.json by MemoryAccounting.
+ * Is enabled by Settings.SHADOW_MODE (see MemoryActivity of the debug builds).
+ */
+public class ShadowEngine {
+    private static final String TAG = ShadowEngine.class.getName();
+    // numbers waiting for comparison beyond it are skipped
+    private static final int MAX_PENDING = 16;
+
+    public static final ShadowLog LOG = new ShadowLog(64);
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final AtomicInteger pending = new AtomicInteger();
+    // secondary engine is compiled by the executor thread
+    private static volatile RuleMatcher matcher = null;
+    private static long matcherGeneration = -1;
+    // comparisons are stopped when the memory budget is exceeded
+    private static volatile boolean suspended = false;
+
+    static final MemoryAccountable MEMORY = new MemoryAccountable() {
+        @Override
+        public int getEntriesCount() {
+            RuleMatcher current = matcher;
+            return (current == null ? 0 : current.size());
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            RuleMatcher current = matcher;
+            return (current == null ? 0 : current.estimateBytes());
+        }
+
+        @Override
+        public long trim() {
+            long bytes = getRetainedBytes();
+            suspended = true;
+            matcher = null;
+            return bytes;
+        }
+
+        @Override
+        public void restore() {
+            suspended = false;
+        }
+    };
+
+    /**
+     * Schedules the comparison of the engines on the number if shadow mode is enabled
+     */
+    public static void submit(Context context, @Nullable String number) {
+        if (ContactsAccessHelper.isPrivatePhoneNumber(number) ||
+                !Settings.getBooleanValue(context, Settings.SHADOW_MODE)) {
+            return;
+        }
+        if (suspended) {
+            Metrics.increment(Metrics.SHADOW_SKIPPED);
+            return;
+        }
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            Metrics.increment(Metrics.SHADOW_SKIPPED);
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final String normalized = ContactsAccessHelper.normalizePhoneNumber(number);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compare(appContext, normalized);
+                } catch (Exception e) {
+                    Log.w(TAG, "Engines comparison failed", e);
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the report of the comparisons: the totals, the average latencies
+     * gap and the last mismatches
+     */
+    public static JSONObject toJson(Context context) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("enabled", Settings.getBooleanValue(context, Settings.SHADOW_MODE));
+        json.put("suspended", suspended);
+        json.put("comparisons", LOG.getComparisonsCount());
+        json.put("mismatches", LOG.getMismatchesCount());
+        json.put("skipped", Metrics.get(Metrics.SHADOW_SKIPPED));
+        // positive if the secondary engine is faster
+        json.put("average_gap_nanos", LOG.getAverageGapNanos());
+        JSONArray last = new JSONArray();
+        for (ShadowLog.Mismatch mismatch : LOG.getMismatches()) {
+            JSONObject item = new JSONObject();
+            item.put("time", mismatch.time);
+            item.put("number", mismatch.number);
+            item.put("primary", toJson(mismatch.primary));
+            item.put("secondary", toJson(mismatch.secondary));
+            item.put("primary_nanos", mismatch.primaryNanos);
+            item.put("secondary_nanos", mismatch.secondaryNanos);
+            last.put(item);
+        }
+        json.put("last_mismatches", last);
+        return json;
+    }
+
+    private static JSONArray toJson(long[] ids) {
+        JSONArray array = new JSONArray();
+        for (long id : ids) {
+            array.put(id);
+        }
+        return array;
+    }
+
+    // Matches the number by both engines and logs the results
+    private static void compare(Context context, String number) {
+        DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+        if (db == null || number.isEmpty()) {
+            return;
+        }
+        RuleMatcher secondary = getMatcher(context, db);
+
+        long start = System.nanoTime();
+        List<DatabaseAccessHelper.Contact> primaryContacts = db.getContacts(number, false);
+        long primaryNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<DatabaseAccessHelper.Contact> secondaryContacts = secondary.match(number);
+        long secondaryNanos = System.nanoTime() - start;
+
+        if (LOG.record(System.currentTimeMillis(), number, getIds(primaryContacts), primaryNanos,
+                getIds(secondaryContacts), secondaryNanos)) {
+            Metrics.increment(Metrics.SHADOW_MISMATCHES);
+        }
+    }
+
+    // Returns the secondary engine compiled from all the rules of the lists
+    private static RuleMatcher getMatcher(Context context, DatabaseAccessHelper db) {
+        long generation = Generations.get(Generations.NUMBERS) + Generations.get(Generations.CONTACTS);
+        RuleMatcher current = matcher;
+        if (current == null || matcherGeneration != generation) {
+            RuleMatcher.Builder builder = new RuleMatcher.Builder(
+                    ContactsAccessHelper.getCanonicalizer(context));
+            // the "no profile" includes all the rules
+            DatabaseAccessHelper.RuleCursorWrapper cursor = db.getRules(Profiles.NONE);
+            if (cursor != null) {
+                builder.add(cursor);
+                cursor.close();
+            }
+            current = builder.build();
+            matcher = current;
+            matcherGeneration = generation;
+        }
+        return current;
+    }
+
+    private static long[] getIds(List<DatabaseAccessHelper.Contact> contacts) {
+        long[] ids = new long[contacts.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = contacts.get(i).id;
+        }
+        return ids;
+    }
+}
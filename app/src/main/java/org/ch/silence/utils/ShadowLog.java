@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded log of the comparisons of the primary and the shadow matching engines.
+ * Keeps the last mismatches of their results and the totals of their latencies.
+ */
+public class ShadowLog {
+    /**
+     * Different results of the engines for the number
+     */
+    public static class Mismatch {
+        public final long time;
+        public final String number;
+        // sorted ids of the matched contacts
+        public final long[] primary;
+        public final long[] secondary;
+        public final long primaryNanos;
+        public final long secondaryNanos;
+
+        Mismatch(long time, String number, long[] primary, long[] secondary,
+                 long primaryNanos, long secondaryNanos) {
+            this.time = time;
+            this.number = number;
+            this.primary = primary;
+            this.secondary = secondary;
+            this.primaryNanos = primaryNanos;
+            this.secondaryNanos = secondaryNanos;
+        }
+    }
+
+    private final int capacity;
+    private final ArrayDeque<Mismatch> mismatches;
+    private long comparisonsCount = 0;
+    private long mismatchesCount = 0;
+    private long primaryNanos = 0;
+    private long secondaryNanos = 0;
+
+    public ShadowLog(int capacity) {
+        this.capacity = capacity;
+        this.mismatches = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Records the results of both engines for the number (ids of the matched
+     * contacts in any order). Returns true if they differ.
+     */
+    public synchronized boolean record(long time, @NonNull String number,
+                                       @NonNull long[] primary, long primaryNanos,
+                                       @NonNull long[] secondary, long secondaryNanos) {
+        comparisonsCount++;
+        this.primaryNanos += primaryNanos;
+        this.secondaryNanos += secondaryNanos;
+        primary = distinct(primary);
+        secondary = distinct(secondary);
+        if (Arrays.equals(primary, secondary)) {
+            return false;
+        }
+        mismatchesCount++;
+        if (mismatches.size() == capacity) {
+            // the oldest one is dropped
+            mismatches.pollFirst();
+        }
+        mismatches.addLast(new Mismatch(time, number, primary, secondary,
+                primaryNanos, secondaryNanos));
+        return true;
+    }
+
+    /**
+     * Returns the last mismatches from the oldest one
+     */
+    public synchronized List<Mismatch> getMismatches() {
+        return new ArrayList<>(mismatches);
+    }
+
+    public synchronized long getComparisonsCount() {
+        return comparisonsCount;
+    }
+
+    public synchronized long getMismatchesCount() {
+        return mismatchesCount;
+    }
+
+    /**
+     * Returns the average of how much the secondary engine is faster than the primary one
+     */
+    public synchronized long getAverageGapNanos() {
+        return (comparisonsCount == 0 ? 0 : (primaryNanos - secondaryNanos) / comparisonsCount);
+    }
+
+    public synchronized void clear() {
+        mismatches.clear();
+        comparisonsCount = 0;
+        mismatchesCount = 0;
+        primaryNanos = 0;
+        secondaryNanos = 0;
+    }
+
+    // Returns sorted copy of the ids without repeats
+    private static long[] distinct(long[] ids) {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        int count = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reassembles the messages from the parts of the multipart SMS.
+ * Buffers are bounded: the parts beyond the maximal body length are cut off
+ * and the senders beyond the maximal count are dropped.
+ */
+public class SmsAssembler {
+    public static final int MAX_MESSAGES = 16;
+    public static final int MAX_BODY_LENGTH = 4096;
+
+    private final Map<String, Part> parts = new LinkedHashMap<>();
+
+    /**
+     * Reassembled message
+     */
+    public static class Message {
+        public final String address;
+        public final String body;
+        public final long timestamp;
+        // some parts were cut off
+        public final boolean truncated;
+
+        Message(String address, String body, long timestamp, boolean truncated) {
+            this.address = address;
+            this.body = body;
+            this.timestamp = timestamp;
+            this.truncated = truncated;
+        }
+    }
+
+    // Message under assembling
+    private static class Part {
+        final StringBuilder body = new StringBuilder();
+        final long timestamp;
+        boolean truncated = false;
+
+        Part(long timestamp) {
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Adds the part of the message from the address. Parts are expected
+     * in order. Returns false if the part was dropped.
+     */
+    public boolean add(@Nullable String address, @Nullable String body, long timestamp) {
+        if (address == null) {
+            address = "";
+        }
+        Part part = parts.get(address);
+        if (part == null) {
+            if (parts.size() == MAX_MESSAGES) {
+                return false;
+            }
+            part = new Part(timestamp);
+            parts.put(address, part);
+        }
+        if (body != null) {
+            int free = MAX_BODY_LENGTH - part.body.length();
+            if (body.length() > free) {
+                body = body.substring(0, free);
+                part.truncated = true;
+            }
+            part.body.append(body);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the reassembled messages in order of their first parts
+     */
+    @NonNull
+    public List<Message> getMessages() {
+        List<Message> messages = new ArrayList<>(parts.size());
+        for (Map.Entry<String, Part> entry : parts.entrySet()) {
+            Part part = entry.getValue();
+            messages.add(new Message(entry.getKey(), part.body.toString(),
+                    part.timestamp, part.truncated));
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Event of the decision made about the incoming SMS
+ */
+public class SmsDecidedEvent {
+    // bus of the events, listeners are called in the background thread
+    public static final EventBus<SmsDecidedEvent> BUS =
+            new EventBus<>(Executors.newSingleThreadExecutor());
+
+    // time the message was sent
+    public final long time;
+    // address of the sender
+    @Nullable
+    public final String address;
+    // reassembled body of the message
+    @NonNull
+    public final String body;
+    // id of the SIM subscription the message came to
+    public final int subscriptionId;
+    // action, reason and matched contact
+    @NonNull
+    public final CallDecision decision;
+    // time spent on the decision
+    public final long latencyNanos;
+    // the blocked message was dropped actually (since android 4.4 only the default
+    // SMS application can drop it, so the blocked one is just flagged)
+    public final boolean dropped;
+
+    public SmsDecidedEvent(long time, @Nullable String address, @NonNull String body,
+                           int subscriptionId, @NonNull CallDecision decision, long latencyNanos,
+                           boolean dropped) {
+        this.time = time;
+        this.address = address;
+        this.body = body;
+        this.subscriptionId = subscriptionId;
+        this.decision = decision;
+        this.latencyNanos = latencyNanos;
+        this.dropped = dropped;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.List;
+
+/**
+ * Decides whether the SMS must be blocked. Senders are checked by the rules of
+ * the calls, and the bodies by the keywords (whole words) compiled to one automaton.
+ */
+public class SmsFilter {
+    private static volatile Keywords keywords = null;
+
+    // keywords are recompiled on demand
+    static final MemoryAccountable MEMORY = new MemoryAccountable() {
+        @Override
+        public int getEntriesCount() {
+            Keywords compiled = keywords;
+            return (compiled == null ? 0 : compiled.keywords.length);
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            Keywords compiled = keywords;
+            return (compiled == null ? 0 : compiled.automaton.estimateBytes() +
+                    MemorySizes.strings(compiled.keywords, compiled.keywords.length));
+        }
+
+        @Override
+        public long trim() {
+            long bytes = getRetainedBytes();
+            keywords = null;
+            return bytes;
+        }
+
+        @Override
+        public void restore() {
+            // is rebuilt on demand
+        }
+    };
+
+    // Compiled keywords and the generation they were loaded at
+    private static class Keywords {
+        final KeywordAutomaton automaton;
+        final String[] keywords;
+        final long generation;
+
+        Keywords(KeywordAutomaton automaton, String[] keywords, long generation) {
+            this.automaton = automaton;
+            this.keywords = keywords;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Decides whether the message from the address to the SIM must be blocked
+     */
+    public static CallDecision decide(Context context, int subscriptionId,
+                                      @Nullable String address, @NonNull String body) {
+        CallDecision decision = CallFilter.decide(context, subscriptionId, address);
+        if (decision.isBlocked() || isTrusted(decision)) {
+            return decision;
+        }
+        Keywords compiled = getKeywords(context);
+        if (compiled.automaton.matches(body)) {
+            return new CallDecision(CallDecision.ACTION_BLOCK, CallDecision.REASON_KEYWORD);
+        }
+        return decision;
+    }
+
+    /**
+     * Returns the keywords found in the text
+     */
+    @NonNull
+    public static String[] findKeywords(Context context, @NonNull String text) {
+        Keywords compiled = getKeywords(context);
+        int[] matched = compiled.automaton.match(text);
+        String[] result = new String[matched.length];
+        for (int i = 0; i < matched.length; i++) {
+            result[i] = compiled.keywords[matched[i]];
+        }
+        return result;
+    }
+
+    // Senders from the white list and the contacts aren't checked by the content
+    private static boolean isTrusted(CallDecision decision) {
+        switch (decision.reason) {
+            case CallDecision.REASON_WHITE_LIST:
+            case CallDecision.REASON_CONTACT:
+            case CallDecision.REASON_CORRESPONDENT:
+                return true;
+        }
+        return false;
+    }
+
+    // Returns the compiled keywords, recompiles them if they were changed
+    private static Keywords getKeywords(Context context) {
+        Keywords compiled = keywords;
+        long generation = Generations.get(Generations.KEYWORDS);
+        if (compiled == null || compiled.generation != generation) {
+            KeywordAutomaton.Builder builder = new KeywordAutomaton.Builder(true);
+            String[] list = new String[0];
+            DatabaseAccessHelper db = DatabaseAccessHelper.getInstance(context);
+            if (db != null) {
+                List<String> loaded = db.getKeywords();
+                list = loaded.toArray(new String[loaded.size()]);
+                for (int i = 0; i < list.length; i++) {
+                    builder.add(list[i], i);
+                }
+            }
+            compiled = new Keywords(builder.build(), list, generation);
+            keywords = compiled;
+        }
+        return compiled;
+    }
+}
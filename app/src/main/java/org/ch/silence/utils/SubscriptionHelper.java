@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+
+import java.util.List;
+
+/**
+ * SIM subscriptions helper
+ */
+public class SubscriptionHelper {
+    public static final int INVALID_SUBSCRIPTION_ID = -1;
+
+    // Extras keys of the subscription id used by the different versions and vendors of Android
+    private static final String[] SUBSCRIPTION_KEYS = {
+            "android.telephony.extra.SUBSCRIPTION_INDEX",
+            "subscription",
+            "subscription_id",
+            "subscriptionId"
+    };
+
+    /**
+     * Returns the list of active subscriptions or null if it isn't available
+     */
+    @Nullable
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP_MR1)
+    public static List<SubscriptionInfo> getSubscriptions(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP_MR1 ||
+                !Permissions.isGranted(context, Permissions.READ_PHONE_STATE)) {
+            return null;
+        }
+        SubscriptionManager manager = SubscriptionManager.from(context);
+        return (manager == null ? null : manager.getActiveSubscriptionInfoList());
+    }
+
+    /**
+     * Returns id of the subscription the broadcast came from or INVALID_SUBSCRIPTION_ID
+     */
+    public static int getSubscriptionId(Intent intent) {
+        Bundle extras = intent.getExtras();
+        if (extras != null) {
+            for (String key : SUBSCRIPTION_KEYS) {
+                Object value = extras.get(key);
+                if (value instanceof Number) {
+                    int id = ((Number) value).intValue();
+                    if (id >= 0) {
+                        return id;
+                    }
+                }
+            }
+        }
+        return INVALID_SUBSCRIPTION_ID;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.content.Context;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Blocking policies of the SIM subscriptions. A SIM without its own policy
+ * follows the global settings. Policies are kept in an immutable snapshot
+ * which is replaced on change, so the calls on different SIMs are decided
+ * without any shared lock.
+ */
+public class SubscriptionPolicies {
+    private static volatile Map<Integer, Policy> snapshot = null;
+
+    /**
+     * Policy of the subscription: either the profile (with its own lists and
+     * modes) or the whitelist mode with all the lists, like the global state
+     */
+    public static class Policy {
+        public final int subscriptionId;
+        public final long profileId;
+        public final boolean whitelist;
+
+        Policy(int subscriptionId, long profileId, boolean whitelist) {
+            this.subscriptionId = subscriptionId;
+            this.profileId = profileId;
+            this.whitelist = whitelist;
+        }
+    }
+
+    /**
+     * Returns policy of the subscription or null if it follows the global settings
+     */
+    @Nullable
+    public static Policy get(Context context, int subscriptionId) {
+        if (subscriptionId == SubscriptionHelper.INVALID_SUBSCRIPTION_ID) {
+            return null;
+        }
+        return getSnapshot(context).get(subscriptionId);
+    }
+
+    /**
+     * Sets policy of the subscription
+     */
+    public static boolean set(Context context, int subscriptionId, long profileId, boolean whitelist) {
+        synchronized (SubscriptionPolicies.class) {
+            Map<Integer, Policy> map = new HashMap<>(getSnapshot(context));
+            map.put(subscriptionId, new Policy(subscriptionId, profileId, whitelist));
+            return save(context, map);
+        }
+    }
+
+    /**
+     * Removes policy of the subscription, so it will follow the global settings
+     */
+    public static boolean remove(Context context, int subscriptionId) {
+        synchronized (SubscriptionPolicies.class) {
+            Map<Integer, Policy> map = new HashMap<>(getSnapshot(context));
+            return map.remove(subscriptionId) == null || save(context, map);
+        }
+    }
+
+    private static Map<Integer, Policy> getSnapshot(Context context) {
+        Map<Integer, Policy> map = snapshot;
+        if (map == null) {
+            synchronized (SubscriptionPolicies.class) {
+                map = snapshot;
+                if (map == null) {
+                    map = parse(Settings.getStringValue(context, Settings.SUBSCRIPTION_POLICIES));
+                    snapshot = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    private static boolean save(Context context, Map<Integer, Policy> map) {
+        StringBuilder builder = new StringBuilder();
+        for (Policy policy : map.values()) {
+            if (builder.length() > 0) {
+                builder.append(';');
+            }
+            builder.append(policy.subscriptionId).append(':')
+                    .append(policy.profileId).append(':')
+                    .append(policy.whitelist ? 1 : 0);
+        }
+        if (!Settings.setStringValue(context, Settings.SUBSCRIPTION_POLICIES, builder.toString())) {
+            return false;
+        }
+        snapshot = Collections.unmodifiableMap(map);
+        return true;
+    }
+
+    // Parses the policies in form "subscriptionId:profileId:whitelist;..."
+    private static Map<Integer, Policy> parse(@Nullable String value) {
+        Map<Integer, Policy> map = new HashMap<>();
+        if (value != null && !value.isEmpty()) {
+            for (String item : value.split(";")) {
+                String[] fields = item.split(":");
+                try {
+                    int subscriptionId = Integer.parseInt(fields[0]);
+                    map.put(subscriptionId, new Policy(subscriptionId,
+                            Long.parseLong(fields[1]), "1".equals(fields[2])));
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException ignored) {
+                }
+            }
+        }
+        return Collections.unmodifiableMap(map);
+    }
+}
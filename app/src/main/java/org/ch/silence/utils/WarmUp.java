@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Prepares everything the call filtering needs (database, settings, rules,
+ * contacts provider) in background after the boot or the process start,
+ * so the first incoming call is decided as fast as the following ones.
+ */
+public class WarmUp {
+    private static final String TAG = WarmUp.class.getName();
+    private static final AtomicBoolean started = new AtomicBoolean(false);
+    private static volatile boolean ready = false;
+
+    /**
+     * Starts warming up (only once per process)
+     */
+    public static void start(Context context) {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        final List<Runnable> stages = getStages(appContext);
+        final ExecutorService executor = Executors.newFixedThreadPool(stages.size());
+        final AtomicInteger remaining = new AtomicInteger(stages.size());
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // all the following stages need the opened database
+                if (DatabaseAccessHelper.getInstance(appContext) == null) {
+                    Log.w(TAG, "Database is not available");
+                }
+                for (final Runnable stage : stages) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                stage.run();
+                            } catch (Exception e) {
+                                Log.w(TAG, "Warm up stage failed", e);
+                            } finally {
+                                // errors (e.g. out of memory) mustn't keep it unready forever
+                                if (remaining.decrementAndGet() == 0) {
+                                    ready = true;
+                                    executor.shutdown();
+                                    // the heavy checking is deferred until everything is ready
+                                    DatabaseIntegrity.checkAsync(appContext);
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns true if all stages of warming up are done
+     */
+    public static boolean isReady() {
+        return ready;
+    }
+
+    // Stages running in parallel after the database is opened
+    private static List<Runnable> getStages(final Context context) {
+        List<Runnable> stages = new ArrayList<>();
+        // settings and permissions
+        stages.add(new Runnable() {
+            @Override
+            public void run() {
+                Permissions.isGranted(context, Permissions.READ_PHONE_STATE);
+                Permissions.isGranted(context, Permissions.CALL_PHONE);
+                Permissions.isGranted(context, Permissions.READ_CONTACTS);
+                Settings.preload(context);
+            }
+        });
+        // rules matchers
+        stages.add(new Runnable() {
+            @Override
+            public void run() {
+                Profiles.getActive(context);
+            }
+        });
+        // contacts
+        stages.add(new Runnable() {
+            @Override
+            public void run() {
+                ContactsAccessHelper.getInstance(context).preload(context);
+            }
+        });
+        // correspondents from the calls log and SMS
+        stages.add(new Runnable() {
+            @Override
+            public void run() {
+                CorrespondentsIndex.getInstance(context).ingest();
+            }
+        });
+        return stages;
+    }
+}
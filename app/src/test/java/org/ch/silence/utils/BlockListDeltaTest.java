@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockListDeltaTest {
+    private static final int EQUALS = 0;
+    private static final int STARTS = 2;
+    private static final int RANGE = 5;
+
+    @Test
+    public void diff() throws Exception {
+        List<BlockListDelta.Entry> from = Arrays.asList(
+                new BlockListDelta.Entry(EQUALS, "+79051234567"),
+                new BlockListDelta.Entry(STARTS, "+7800"));
+        List<BlockListDelta.Entry> to = Arrays.asList(
+                new BlockListDelta.Entry(EQUALS, "+79051234567"),
+                new BlockListDelta.Entry(EQUALS, "+7800"),
+                new BlockListDelta.Entry(RANGE, "+1 555 0100..+1 555 0199"));
+        BlockListDelta delta = BlockListDelta.diff(from, to);
+        assertEquals(new HashSet<>(Arrays.asList(to.get(1), to.get(2))), new HashSet<>(delta.getAdded()));
+        assertEquals(Arrays.asList(from.get(1)), delta.getRemoved());
+        assertTrue(BlockListDelta.diff(to, to).isEmpty());
+    }
+
+    @Test
+    public void readWrite() throws Exception {
+        String text = "# weekly update\n" +
+                "+ equals +79051234567\n" +
+                "\n" +
+                "- starts +7800\n" +
+                "+ range +1 555 0100..+1 555 0199\n";
+        BlockListDelta delta = BlockListDelta.read(new StringReader(text));
+        assertEquals(Arrays.asList(
+                new BlockListDelta.Entry(EQUALS, "+79051234567"),
+                new BlockListDelta.Entry(RANGE, "+1 555 0100..+1 555 0199")), delta.getAdded());
+        assertEquals(Arrays.asList(new BlockListDelta.Entry(STARTS, "+7800")), delta.getRemoved());
+
+        StringWriter writer = new StringWriter();
+        delta.write(writer);
+        BlockListDelta copy = BlockListDelta.read(new StringReader(writer.toString()));
+        assertEquals(delta.getAdded(), copy.getAdded());
+        assertEquals(delta.getRemoved(), copy.getRemoved());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidType() throws Exception {
+        BlockListDelta.read(new StringReader("+ prefix +7800\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidOperation() throws Exception {
+        BlockListDelta.read(new StringReader("* equals +7800\n"));
+    }
+}
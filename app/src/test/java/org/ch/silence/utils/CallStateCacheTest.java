@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CallStateCacheTest {
+    @Test
+    public void duplicatesAreReplayed() throws Exception {
+        CallStateCache cache = new CallStateCache();
+        CallDecision decision = new CallDecision(CallDecision.ACTION_BLOCK, CallDecision.REASON_PRIVATE);
+        long duplicates = Metrics.get(Metrics.DUPLICATE_BROADCASTS);
+
+        assertNull(cache.get("+123", "RINGING", 1000));
+        cache.put("+123", "RINGING", decision, 1000);
+        assertTrue(cache.get("+123", "RINGING", 1500) == decision);
+        assertTrue(cache.get("+123", "RINGING", 1000 + CallStateCache.TTL) == decision);
+        assertNull(cache.get("+123", "IDLE", 1500));
+        assertNull(cache.get("+456", "RINGING", 1500));
+        assertNull(cache.get("+123", "RINGING", 1001 + CallStateCache.TTL));
+        assertEquals(duplicates + 2, Metrics.get(Metrics.DUPLICATE_BROADCASTS));
+    }
+
+    @Test
+    public void expiredRecordsArePruned() throws Exception {
+        CallStateCache cache = new CallStateCache();
+        CallDecision decision = new CallDecision(CallDecision.ACTION_ALLOW, CallDecision.REASON_DEFAULT);
+        for (int i = 0; i < 100; i++) {
+            cache.put(String.valueOf(i), "RINGING", decision, i * CallStateCache.TTL);
+        }
+        assertTrue(cache.size() < 20);
+    }
+}
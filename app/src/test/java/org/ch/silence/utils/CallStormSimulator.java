@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import android.support.annotation.Nullable;
+import android.telephony.TelephonyManager;
+
+import org.ch.silence.receivers.CallBroadcastReceiver;
+import org.ch.silence.utils.DatabaseAccessHelper.Contact;
+import org.ch.silence.utils.DatabaseAccessHelper.ContactNumber;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Load simulator of the calls receiver on the JVM.
+ * Drives CallBroadcastReceiver.handle with the synthetic phone state broadcasts
+ * at the configured rate and concurrency, while the import is writing the rules
+ * to the in-memory store. Reports latencies of the decisions, the late and dropped
+ * decisions, the waits of the receivers for the store lock, the published events
+ * and the recompiles of the profile.
+ * <p>
+ * Usage: CallStormSimulator [callsPerMinute] [receivers] [calls] [timeScale]
+ */
+public class CallStormSimulator {
+    private static final String RINGING = TelephonyManager.EXTRA_STATE_RINGING;
+    private static final String IDLE = TelephonyManager.EXTRA_STATE_IDLE;
+
+    /**
+     * Parameters of the simulation
+     */
+    public static class Config {
+        public int callsPerMinute = 20;
+        // threads delivering the broadcasts (the main thread only by default)
+        public int receivers = 1;
+        public int calls = 200;
+        // how much faster than real time the calls are arriving
+        public double timeScale = 100;
+        // broadcasts waiting for delivery beyond it are dropped
+        public int queueCapacity = 64;
+        // decision is late if the phone is ringing longer
+        public long lateMillis = 200;
+        // receiver running longer is killed by the system
+        public long timeoutMillis = 10000;
+        // repeats of the ringing broadcast of the same call
+        public int duplicates = 1;
+        // share of the calls from the black list
+        public double spamShare = 0.8;
+        public int blackListSize = 20000;
+        public int contactsCount = 500;
+        // the import transactions hold the store for a while
+        public int importBatches = 50;
+        public int importBatchSize = 1000;
+        public long importBatchMillis = 20;
+        public long importPauseMillis = 5;
+        public long seed = 1;
+    }
+
+    /**
+     * Results of the simulation (latencies are in microseconds)
+     */
+    public static class Report {
+        public int calls;
+        public int decisions;
+        public int spam;
+        public int blocked;
+        // spam allowed or contact blocked
+        public int misjudged;
+        public int late;
+        public int dropped;
+        public long p50;
+        public long p90;
+        public long p99;
+        public long max;
+        // events delivered to the listeners of the bus
+        public int published;
+        // numbers submitted to the shadow matching
+        public int shadowed;
+        public int idle;
+        public long compiles;
+        // waits of the receivers for the store lock held by the import
+        public long lockContentions;
+        public long lockWaitMicros;
+        public long lockMaxWaitMicros;
+        public int importedBatches;
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "calls: %d, decisions: %d, spam: %d, blocked: %d, misjudged: %d%n" +
+                            "latency us: p50 %d, p90 %d, p99 %d, max %d%n" +
+                            "late: %d, dropped: %d%n" +
+                            "published: %d, shadowed: %d, idle: %d%n" +
+                            "lock: %d contended, %d us waiting, %d us max%n" +
+                            "import: %d batches, %d profile compiles",
+                    calls, decisions, spam, blocked, misjudged, p50, p90, p99, max,
+                    late, dropped, published, shadowed, idle,
+                    lockContentions, lockWaitMicros, lockMaxWaitMicros, importedBatches, compiles);
+        }
+    }
+
+    // In-memory lists written in transactions like the database file
+    static class Store implements CallFilter.Environment {
+        // guards the lists and the compiling of the profile
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicLong contentions = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+        private final AtomicLong compiles = new AtomicLong();
+        private final PhoneNumberCanonicalizer canonicalizer = PhoneNumberCanonicalizer.forRegion("RU");
+        private final DatabaseAccessHelper.ProfileItem profileItem =
+                new DatabaseAccessHelper.ProfileItem(1, "Storm", true, true);
+        private final List<ContactNumber> blackList = new ArrayList<>();
+        // contacts provider
+        private final Map<String, Contact> contacts = new HashMap<>();
+        // compiled lazily after each change like in Profiles
+        private volatile Profiles.Profile profile = null;
+
+        @Nullable
+        @Override
+        public SubscriptionPolicies.Policy getPolicy(int subscriptionId) {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Profiles.Profile getProfile(long profileId) {
+            return getActiveProfile();
+        }
+
+        @Nullable
+        @Override
+        public Profiles.Profile getActiveProfile() {
+            Profiles.Profile result = profile;
+            if (result == null) {
+                lockMeasured();
+                try {
+                    result = profile;
+                    if (result == null) {
+                        RuleMatcher.Builder builder = new RuleMatcher.Builder(canonicalizer);
+                        for (ContactNumber number : blackList) {
+                            builder.add(number, "Spam", Contact.TYPE_BLACK_LIST);
+                        }
+                        result = new Profiles.Profile(profileItem, builder.build());
+                        compiles.incrementAndGet();
+                        profile = result;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return result;
+        }
+
+        // Takes the lock counting the time the thread was blocked by another one
+        private void lockMeasured() {
+            if (lock.tryLock()) {
+                return;
+            }
+            long start = System.nanoTime();
+            lock.lock();
+            long wait = System.nanoTime() - start;
+            contentions.incrementAndGet();
+            waitNanos.addAndGet(wait);
+            long max;
+            do {
+                max = maxWaitNanos.get();
+            } while (wait > max && !maxWaitNanos.compareAndSet(max, wait));
+        }
+
+        @Override
+        public boolean getBooleanSetting(String name) {
+            return false;
+        }
+
+        @Override
+        public boolean hasLists() {
+            return true;
+        }
+
+        @Override
+        public boolean isWhiteListed(String number) {
+            return false;
+        }
+
+        @Override
+        public boolean hasCorrespondents() {
+            return false;
+        }
+
+        @Override
+        public boolean isCorrespondent(String number) {
+            return false;
+        }
+
+        @Override
+        public boolean hasContacts() {
+            return true;
+        }
+
+        @Nullable
+        @Override
+        public Contact getContact(String number) {
+            synchronized (contacts) {
+                return contacts.get(number);
+            }
+        }
+
+        void addContact(long id, String number) {
+            synchronized (contacts) {
+                contacts.put(number, new Contact(id, "Contact " + id, 0,
+                        Collections.singletonList(new ContactNumber(id, number, id))));
+            }
+        }
+
+        // Writes the rules in one transaction, the readers wait for it
+        // like for the write lock of the database file
+        void addRules(List<ContactNumber> numbers, long holdMillis) throws InterruptedException {
+            lock.lock();
+            try {
+                profile = null;
+                blackList.addAll(numbers);
+                Thread.sleep(holdMillis);
+            } finally {
+                lock.unlock();
+            }
+            Generations.bump(Generations.NUMBERS);
+        }
+    }
+
+    // Does what the receiver does in the context, but with the store
+    private class StoreHandler implements CallBroadcastReceiver.Handler {
+        // the shadow matching is made in background like in ShadowEngine
+        private final ExecutorService shadowExecutor = Executors.newSingleThreadExecutor();
+        private final AtomicInteger shadowed = new AtomicInteger();
+        private final AtomicInteger idle = new AtomicInteger();
+
+        @Override
+        public int getSubscriptionId() {
+            return SubscriptionHelper.INVALID_SUBSCRIPTION_ID;
+        }
+
+        @Override
+        public CallDecision decide(int subscriptionId, @Nullable String number) {
+            return CallFilter.decide(store, decisionCache, subscriptionId, number);
+        }
+
+        @Override
+        public void onDecided(@Nullable final String number) {
+            shadowed.incrementAndGet();
+            shadowExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // doesn't wait for the store, so the waits are of the receivers only
+                    Profiles.Profile profile = store.profile;
+                    if (profile != null && number != null) {
+                        profile.matcher.match(number);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onIdle() {
+            idle.incrementAndGet();
+        }
+    }
+
+    private final Config config;
+    private final Store store = new Store();
+    private final DecisionCache decisionCache = new DecisionCache();
+    private final CallStateCache callStateCache = new CallStateCache();
+    private final StoreHandler handler = new StoreHandler();
+    private final long startNanos = System.nanoTime();
+
+    public CallStormSimulator(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Runs the simulation, blocks until all the broadcasts are delivered
+     */
+    public Report run() throws InterruptedException {
+        final Random random = new Random(config.seed);
+        final Report report = new Report();
+
+        // initial lists
+        List<String> spamNumbers = new ArrayList<>();
+        List<ContactNumber> rules = new ArrayList<>();
+        for (int i = 0; i < config.blackListSize; i++) {
+            String number = randomNumber(random, "+7900");
+            spamNumbers.add(number);
+            rules.add(new ContactNumber(i, number, 1));
+        }
+        rules.add(new ContactNumber(config.blackListSize, "+7800", ContactNumber.TYPE_STARTS, 1));
+        store.addRules(rules, 0);
+        List<String> contactNumbers = new ArrayList<>();
+        for (int i = 0; i < config.contactsCount; i++) {
+            String number = randomNumber(random, "+7916");
+            contactNumbers.add(number);
+            store.addContact(i + 2, number);
+        }
+
+        // the import is running during the storm
+        final AtomicInteger importedBatches = new AtomicInteger();
+        Thread importer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random importRandom = new Random(config.seed + 1);
+                long id = config.blackListSize + 1;
+                try {
+                    for (int batch = 0; batch < config.importBatches; batch++) {
+                        List<ContactNumber> numbers = new ArrayList<>(config.importBatchSize);
+                        for (int i = 0; i < config.importBatchSize; i++) {
+                            numbers.add(new ContactNumber(id++, randomNumber(importRandom, "+7901"), 1));
+                        }
+                        store.addRules(numbers, config.importBatchMillis);
+                        importedBatches.incrementAndGet();
+                        Thread.sleep(config.importPauseMillis);
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }, "import");
+        importer.start();
+
+        // the decisions are published to the listeners like the journal
+        final AtomicInteger published = new AtomicInteger();
+        EventBus.Listener<CallDecidedEvent> listener = new EventBus.Listener<CallDecidedEvent>() {
+            @Override
+            public void onEvent(CallDecidedEvent event) {
+                published.incrementAndGet();
+            }
+        };
+        CallDecidedEvent.BUS.subscribe(listener);
+
+        // broadcasts are queued for the receivers like in the system
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(config.receivers, config.receivers,
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(config.queueCapacity));
+        final long[] latencies = new long[config.calls * config.duplicates];
+        final AtomicInteger decisions = new AtomicInteger();
+        final AtomicInteger late = new AtomicInteger();
+        final AtomicInteger dropped = new AtomicInteger();
+        final AtomicInteger blocked = new AtomicInteger();
+        final AtomicInteger misjudged = new AtomicInteger();
+
+        double intervalNanos = TimeUnit.MINUTES.toNanos(1) / config.callsPerMinute / config.timeScale;
+        for (int call = 0; call < config.calls; call++) {
+            long arrival = startNanos + (long) (call * intervalNanos);
+            long delay = arrival - System.nanoTime();
+            if (delay > 0) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+            final boolean spam = random.nextDouble() < config.spamShare;
+            final String number;
+            if (spam) {
+                report.spam++;
+                number = (random.nextBoolean() ?
+                        spamNumbers.get(random.nextInt(spamNumbers.size())) :
+                        randomNumber(random, "+7800"));
+            } else {
+                number = contactNumbers.get(random.nextInt(contactNumbers.size()));
+            }
+            for (int i = 0; i < config.duplicates; i++) {
+                final long sent = System.nanoTime();
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            CallDecision decision = onReceive(number, RINGING);
+                            long latency = System.nanoTime() - sent;
+                            latencies[decisions.getAndIncrement()] = latency;
+                            long millis = TimeUnit.NANOSECONDS.toMillis(latency);
+                            if (millis > config.timeoutMillis) {
+                                dropped.incrementAndGet();
+                            } else if (millis > config.lateMillis) {
+                                late.incrementAndGet();
+                            }
+                            if (decision.isBlocked()) {
+                                blocked.incrementAndGet();
+                            }
+                            if (decision.isBlocked() != spam) {
+                                misjudged.incrementAndGet();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    dropped.incrementAndGet();
+                }
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onReceive(number, IDLE);
+                    }
+                });
+            } catch (RejectedExecutionException ignored) {
+                // the call is over anyway
+            }
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        importer.interrupt();
+        importer.join();
+        handler.shadowExecutor.shutdown();
+        handler.shadowExecutor.awaitTermination(1, TimeUnit.HOURS);
+        final CountDownLatch delivered = new CountDownLatch(1);
+        CallDecidedEvent.BUS.whenDelivered(new Runnable() {
+            @Override
+            public void run() {
+                delivered.countDown();
+            }
+        });
+        delivered.await();
+        CallDecidedEvent.BUS.unsubscribe(listener);
+
+        report.calls = config.calls;
+        report.decisions = decisions.get();
+        report.blocked = blocked.get();
+        report.misjudged = misjudged.get();
+        report.late = late.get();
+        report.dropped = dropped.get();
+        long[] sorted = Arrays.copyOf(latencies, report.decisions);
+        Arrays.sort(sorted);
+        report.p50 = percentile(sorted, 50);
+        report.p90 = percentile(sorted, 90);
+        report.p99 = percentile(sorted, 99);
+        report.max = percentile(sorted, 100);
+        report.published = published.get();
+        report.shadowed = handler.shadowed.get();
+        report.idle = handler.idle.get();
+        report.compiles = store.compiles.get();
+        report.lockContentions = store.contentions.get();
+        report.lockWaitMicros = TimeUnit.NANOSECONDS.toMicros(store.waitNanos.get());
+        report.lockMaxWaitMicros = TimeUnit.NANOSECONDS.toMicros(store.maxWaitNanos.get());
+        report.importedBatches = importedBatches.get();
+        return report;
+    }
+
+    // Delivers the broadcast to the receiver
+    private CallDecision onReceive(String number, String state) {
+        long now = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        return CallBroadcastReceiver.handle(handler, callStateCache, state, number, now);
+    }
+
+    private static String randomNumber(Random random, String prefix) {
+        return prefix + String.format(Locale.US, "%07d", random.nextInt(10000000));
+    }
+
+    // Returns the percentile in microseconds
+    private static long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return TimeUnit.NANOSECONDS.toMicros(sorted[Math.max(0, index)]);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Config config = new Config();
+        if (args.length > 0) config.callsPerMinute = Integer.parseInt(args[0]);
+        if (args.length > 1) config.receivers = Integer.parseInt(args[1]);
+        if (args.length > 2) config.calls = Integer.parseInt(args[2]);
+        if (args.length > 3) config.timeScale = Double.parseDouble(args[3]);
+        System.out.println(new CallStormSimulator(config).run());
+        // the thread of the events bus isn't a daemon
+        System.exit(0);
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CallStormSimulatorTest {
+    @Test
+    public void storm() throws Exception {
+        CallStormSimulator.Config config = new CallStormSimulator.Config();
+        config.calls = 100;
+        config.receivers = 2;
+        config.duplicates = 2;
+        config.timeScale = 1000;
+        config.blackListSize = 2000;
+        config.importBatches = 10;
+        config.importBatchSize = 200;
+        config.importBatchMillis = 5;
+        config.queueCapacity = 1000;
+        CallStormSimulator.Report report = new CallStormSimulator(config).run();
+        assertEquals(200, report.decisions);
+        assertEquals(0, report.dropped);
+        assertEquals(0, report.misjudged);
+        assertEquals(report.spam * 2, report.blocked);
+        // each decision made (not replayed) is published and shadowed
+        assertTrue(report.published > 0);
+        assertEquals(report.shadowed, report.published);
+        assertTrue(report.idle > 0);
+        // the receivers wait for the import transactions
+        assertTrue(report.lockContentions > 0);
+        assertTrue(report.lockWaitMicros > 0);
+        assertTrue(report.lockMaxWaitMicros > 0);
+    }
+}
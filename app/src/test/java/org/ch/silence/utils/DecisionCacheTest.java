@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DecisionCacheTest {
+    private static final CallDecision BLOCK =
+            new CallDecision(CallDecision.ACTION_BLOCK, CallDecision.REASON_BLACK_LIST);
+
+    @Test
+    public void leastRecentlyUsedAreEvicted() throws Exception {
+        DecisionCache cache = new DecisionCache(2);
+        long generation = Generations.current();
+        cache.put(0, "+1", BLOCK, generation);
+        cache.put(0, "+2", BLOCK, generation);
+        assertTrue(cache.get(0, "+1") == BLOCK);
+        cache.put(0, "+3", BLOCK, generation);
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.get(0, "+1") == BLOCK);
+        assertNull(cache.get(0, "+2"));
+        assertNull(cache.get(1, "+1"));
+    }
+
+    @Test
+    public void changesInvalidateDecisions() throws Exception {
+        DecisionCache cache = new DecisionCache();
+        cache.put(0, "+1", BLOCK, Generations.current());
+        assertTrue(cache.get(0, "+1") == BLOCK);
+
+        Generations.bump(Generations.NUMBERS);
+        assertNull(cache.get(0, "+1"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void onlyDependenciesInvalidateDecisions() throws Exception {
+        DecisionCache cache = new DecisionCache();
+        int sources = Generations.mask(Generations.NUMBERS) | Generations.mask(Generations.SETTINGS);
+        cache.put(0, "+1", BLOCK, sources, Generations.current(sources));
+
+        Generations.bump(Generations.CORRESPONDENTS);
+        Generations.bump(Generations.KEYWORDS);
+        assertTrue(cache.get(0, "+1") == BLOCK);
+
+        Generations.bump(Generations.SETTINGS);
+        assertNull(cache.get(0, "+1"));
+    }
+
+    @Test
+    public void trimmingShrinksCapacity() throws Exception {
+        DecisionCache cache = new DecisionCache(64);
+        long generation = Generations.current();
+        for (int i = 0; i < 40; i++) {
+            cache.put(0, "+" + i, BLOCK, generation);
+        }
+        assertTrue(cache.getRetainedBytes() > 0);
+        assertEquals(cache.getRetainedBytes(), cache.trim());
+        assertEquals(0, cache.getEntriesCount());
+        assertEquals(32, cache.getCapacity());
+
+        for (int i = 0; i < 40; i++) {
+            cache.put(0, "+" + i, BLOCK, generation);
+        }
+        assertEquals(32, cache.size());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventBusTest {
+    // Runs the tasks when they are asked to
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class Collector implements EventBus.Listener<Integer> {
+        final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void onEvent(Integer event) {
+            events.add(event);
+        }
+    }
+
+    @Test
+    public void deliversInOrder() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        EventBus<Integer> bus = new EventBus<>(executor);
+        Collector first = new Collector();
+        Collector second = new Collector();
+        assertFalse(bus.publish(0));
+        bus.subscribe(first);
+        bus.subscribe(second);
+        assertTrue(bus.publish(1));
+        assertTrue(bus.publish(2));
+        // one drain task is scheduled for the events published while it is pending
+        assertEquals(1, executor.tasks.size());
+        assertTrue(first.events.isEmpty());
+        executor.runAll();
+        assertEquals(Arrays.asList(1, 2), first.events);
+        assertEquals(Arrays.asList(1, 2), second.events);
+
+        bus.unsubscribe(second);
+        bus.publish(3);
+        executor.runAll();
+        assertEquals(Arrays.asList(1, 2, 3), first.events);
+        assertEquals(Arrays.asList(1, 2), second.events);
+    }
+
+    @Test
+    public void dropsWhenFull() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        EventBus<Integer> bus = new EventBus<>(executor, 2);
+        Collector collector = new Collector();
+        bus.subscribe(collector);
+        assertTrue(bus.publish(1));
+        assertTrue(bus.publish(2));
+        assertFalse(bus.publish(3));
+        executor.runAll();
+        assertTrue(bus.publish(4));
+        executor.runAll();
+        assertEquals(Arrays.asList(1, 2, 4), collector.events);
+    }
+
+    @Test
+    public void callbackAfterDelivery() throws Exception {
+        ManualExecutor executor = new ManualExecutor();
+        final EventBus<Integer> bus = new EventBus<>(executor);
+        final Collector collector = new Collector();
+        final List<Integer> delivered = new ArrayList<>();
+        bus.subscribe(collector);
+        bus.publish(1);
+        bus.publish(2);
+        bus.whenDelivered(new Runnable() {
+            @Override
+            public void run() {
+                delivered.addAll(collector.events);
+            }
+        });
+        bus.publish(3);
+        executor.runAll();
+        assertEquals(Arrays.asList(1, 2), delivered);
+        assertEquals(Arrays.asList(1, 2, 3), collector.events);
+    }
+
+    @Test
+    public void concurrentPublishers() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        final EventBus<Integer> bus = new EventBus<>(executor, Integer.MAX_VALUE);
+        final int count = 10000;
+        final CountDownLatch delivered = new CountDownLatch(4 * count);
+        bus.subscribe(new EventBus.Listener<Integer>() {
+            @Override
+            public void onEvent(Integer event) {
+                delivered.countDown();
+            }
+        });
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < count; i++) {
+                        bus.publish(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class JournalRollupTest {
+    private static final long HOUR = JournalRollup.HOUR;
+
+    @Test
+    public void buckets() throws Exception {
+        JournalRollup rollup = new JournalRollup(TimeZone.getTimeZone("GMT+03:00"),
+                PhoneNumberCanonicalizer.forRegion("RU"));
+        rollup.add(10 * HOUR + 5, "+79051234567", false);
+        rollup.add(10 * HOUR + 10, "+79057654321", true);
+        rollup.add(21 * HOUR, null, false);
+        rollup.add(22 * HOUR, "89051234567", false);
+
+        Map<Long, long[]> hours = rollup.getHours();
+        assertEquals(3, hours.size());
+        assertArrayEquals(new long[]{1, 1}, hours.get(10 * HOUR));
+        assertArrayEquals(new long[]{1, 0}, hours.get(21 * HOUR));
+
+        // 21:00 UTC is the next local day
+        Map<Long, long[]> days = rollup.getDays();
+        assertEquals(2, days.size());
+        assertArrayEquals(new long[]{1, 1}, days.get(0L));
+        assertArrayEquals(new long[]{2, 0}, days.get(1L));
+
+        Map<String, long[]> prefixes = rollup.getPrefixes();
+        // national and international forms are counted together
+        assertEquals(1, prefixes.size());
+        assertArrayEquals(new long[]{3, 22 * HOUR}, prefixes.get("+7905"));
+    }
+
+    @Test
+    public void keys() throws Exception {
+        assertEquals(-HOUR, JournalRollup.getHour(-1));
+        assertEquals(-1, JournalRollup.getDay(-1, TimeZone.getTimeZone("UTC")));
+        assertEquals("123", JournalRollup.getPrefix("123"));
+        assertNull(JournalRollup.getPrefix("+"));
+        assertNull(JournalRollup.getPrefix("Bank"));
+        assertNull(JournalRollup.getPrefix("-2"));
+    }
+}
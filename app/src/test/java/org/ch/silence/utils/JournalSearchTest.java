@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JournalSearchTest {
+    @Test
+    public void matchQuery() throws Exception {
+        assertEquals("\"Bank*\" \"1234*\"", JournalSearch.toMatchQuery("Bank 1234"));
+        // operators and quotes are separators
+        assertEquals("\"a*\" \"OR*\" \"b*\"", JournalSearch.toMatchQuery("a OR -b"));
+        assertEquals("\"win*\" \"NEAR*\" \"2*\" \"now*\"",
+                JournalSearch.toMatchQuery("\"win* NEAR/2\" now"));
+        // groups of the formatted number are found among the indexed suffixes
+        assertEquals("\"905*\" \"123*\" \"45*\"", JournalSearch.toMatchQuery("(905) 123-45"));
+        assertEquals("", JournalSearch.toMatchQuery(""));
+        assertEquals("", JournalSearch.toMatchQuery(" *-\"() "));
+    }
+
+    @Test
+    public void indexedNumber() throws Exception {
+        String sql = JournalSearch.indexedNumber("number");
+        assertTrue(sql.startsWith("number || ' ' || substr(number, 2)"));
+        int last = JournalSearch.MAX_NUMBER_LENGTH - JournalSearch.MIN_FRAGMENT + 1;
+        assertTrue(sql.endsWith("substr(number, " + last + ")"));
+        assertFalse(sql.contains("substr(number, " + (last + 1) + ")"));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeywordAutomatonTest {
+    private static int[] match(KeywordAutomaton automaton, String text) {
+        int[] values = automaton.match(text);
+        Arrays.sort(values);
+        return values;
+    }
+
+    @Test
+    public void keywords() throws Exception {
+        KeywordAutomaton.Builder builder = new KeywordAutomaton.Builder();
+        builder.add("he", 0);
+        builder.add("she", 1);
+        builder.add("his", 2);
+        builder.add("hers", 3);
+        assertFalse(builder.add("  ", 4));
+        KeywordAutomaton automaton = builder.build();
+
+        assertArrayEquals(new int[]{0, 1, 3}, match(automaton, "ushers"));
+        assertArrayEquals(new int[]{2}, match(automaton, "this"));
+        assertArrayEquals(new int[]{}, match(automaton, "hi"));
+        assertArrayEquals(new int[]{0, 1}, match(automaton, "SHE SHE"));
+        assertTrue(automaton.matches("ahishers"));
+        assertFalse(automaton.matches("abc"));
+    }
+
+    @Test
+    public void phrases() throws Exception {
+        KeywordAutomaton.Builder builder = new KeywordAutomaton.Builder();
+        builder.add("You  have WON", 7);
+        builder.add("free\tcredit", 8);
+        KeywordAutomaton automaton = builder.build();
+
+        assertArrayEquals(new int[]{7}, match(automaton, "Congratulations! you\nhave   won a prize"));
+        assertArrayEquals(new int[]{8}, match(automaton, "get FREE credit now"));
+        assertArrayEquals(new int[]{}, match(automaton, "you havewon"));
+        assertArrayEquals(new int[]{}, match(automaton, ""));
+    }
+
+    @Test
+    public void wholeWords() throws Exception {
+        KeywordAutomaton.Builder builder = new KeywordAutomaton.Builder(true);
+        builder.add("win", 1);
+        builder.add("free credit", 2);
+        builder.add("$$$", 3);
+        builder.add("-50%", 4);
+        KeywordAutomaton automaton = builder.build();
+
+        assertArrayEquals(new int[]{1}, match(automaton, "You WIN!"));
+        assertArrayEquals(new int[]{1}, match(automaton, "win"));
+        assertArrayEquals(new int[]{}, match(automaton, "close the window"));
+        assertArrayEquals(new int[]{}, match(automaton, "twin"));
+        assertArrayEquals(new int[]{}, match(automaton, "wins"));
+        assertArrayEquals(new int[]{2}, match(automaton, "get free  credit."));
+        assertArrayEquals(new int[]{}, match(automaton, "carefree credits"));
+        assertArrayEquals(new int[]{3}, match(automaton, "cash$$$now"));
+        assertArrayEquals(new int[]{4}, match(automaton, "sale-50%off"));
+        assertFalse(automaton.matches("windows and twins"));
+        assertTrue(automaton.matches("windows and twins win"));
+    }
+
+    @Test
+    public void randomTexts() throws Exception {
+        Random random = new Random(1);
+        String[] keywords = new String[200];
+        KeywordAutomaton.Builder builder = new KeywordAutomaton.Builder();
+        for (int i = 0; i < keywords.length; i++) {
+            keywords[i] = randomString(random, 1 + random.nextInt(5));
+            builder.add(keywords[i], i);
+        }
+        KeywordAutomaton automaton = builder.build();
+        for (int t = 0; t < 200; t++) {
+            String text = randomString(random, random.nextInt(60));
+            int count = 0;
+            for (String keyword : keywords) {
+                if (text.contains(keyword)) {
+                    count++;
+                }
+            }
+            int[] matched = automaton.match(text);
+            assertEquals(count, matched.length);
+            for (int i : matched) {
+                assertTrue(text.contains(keywords[i]));
+            }
+            assertEquals(count > 0, automaton.matches(text));
+        }
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(3)));
+        }
+        return builder.toString();
+    }
+}
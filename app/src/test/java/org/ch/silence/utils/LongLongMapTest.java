@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongLongMapTest {
+    @Test
+    public void putAndGet() throws Exception {
+        LongLongMap map = new LongLongMap();
+        assertEquals(-1, map.put(0, 10, -1));
+        assertEquals(-1, map.put(79051234567L, 20, -1));
+        assertEquals(10, map.put(0, 11, -1));
+        assertEquals(2, map.size());
+        assertEquals(11, map.get(0, -1));
+        assertEquals(20, map.get(79051234567L, -1));
+        assertEquals(-1, map.get(1, -1));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeKey() throws Exception {
+        new LongLongMap().put(-1, 0, 0);
+    }
+
+    @Test
+    public void randomKeys() throws Exception {
+        Random random = new Random(1);
+        LongLongMap map = new LongLongMap(4);
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i++) {
+            long key = (random.nextBoolean() ? random.nextInt(1000) :
+                    NumberRangeIndex.toKey("+7905" + (1000000 + random.nextInt(9000000))));
+            long value = random.nextLong();
+            Long previous = expected.put(key, value);
+            assertEquals(previous == null ? -1 : previous, map.put(key, value, -1));
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.size(), map.keys().length);
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals((long) entry.getValue(), map.get(entry.getKey(), -1));
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MemoryAccountsTest {
+    // Structure of the fixed size
+    private static class Structure implements MemoryAccountable {
+        final long size;
+        long bytes;
+        int trims = 0;
+        int restores = 0;
+
+        Structure(long bytes) {
+            this.size = bytes;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int getEntriesCount() {
+            return (int) (bytes / 10);
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            return bytes;
+        }
+
+        @Override
+        public long trim() {
+            long released = bytes;
+            bytes = 0;
+            trims++;
+            return released;
+        }
+
+        @Override
+        public void restore() {
+            bytes = size;
+            restores++;
+        }
+    }
+
+    @Test
+    public void trimmedByPriority() throws Exception {
+        MemoryAccounts accounts = new MemoryAccounts();
+        Structure rules = new Structure(1000);
+        Structure cache = new Structure(300);
+        Structure index = new Structure(500);
+        Structure shadow = new Structure(200);
+        accounts.register("rules", MemoryAccounts.PRIORITY_ESSENTIAL, rules);
+        accounts.register("cache", MemoryAccounts.PRIORITY_CACHE, cache);
+        accounts.register("index", MemoryAccounts.PRIORITY_INDEX, index);
+        accounts.register("shadow", MemoryAccounts.PRIORITY_OPTIONAL, shadow);
+
+        List<MemoryAccounts.Account> list = accounts.getAccounts();
+        assertEquals("shadow", list.get(0).name);
+        assertEquals("rules", list.get(3).name);
+        assertEquals(2000, accounts.getRetainedBytes());
+
+        // fits the budget after the optional and the cache ones
+        assertEquals(2, accounts.trimToBudget(1500, MemoryAccounts.PRIORITY_ESSENTIAL));
+        assertEquals(1, shadow.trims);
+        assertEquals(1, cache.trims);
+        assertEquals(0, index.trims);
+        assertEquals(1500, accounts.getRetainedBytes());
+
+        // the essential ones aren't trimmed by the budget
+        assertEquals(1, accounts.trimToBudget(100, MemoryAccounts.PRIORITY_ESSENTIAL));
+        assertEquals(0, rules.trims);
+        assertEquals(1, accounts.trimToBudget(0, Integer.MAX_VALUE));
+        assertEquals(1, rules.trims);
+        assertEquals(0, accounts.getRetainedBytes());
+    }
+
+    @Test
+    public void restoredByPriority() throws Exception {
+        MemoryAccounts accounts = new MemoryAccounts();
+        Structure rules = new Structure(1000);
+        Structure index = new Structure(500);
+        Structure shadow = new Structure(200);
+        accounts.register("rules", MemoryAccounts.PRIORITY_ESSENTIAL, rules);
+        accounts.register("index", MemoryAccounts.PRIORITY_INDEX, index);
+        accounts.register("shadow", MemoryAccounts.PRIORITY_OPTIONAL, shadow);
+        assertEquals(700, accounts.getRetainedBytes(MemoryAccounts.PRIORITY_ESSENTIAL));
+
+        assertEquals(2, accounts.trimToBudget(1000, MemoryAccounts.PRIORITY_ESSENTIAL));
+        assertEquals(1000, accounts.getRetainedBytes());
+
+        // the released bytes don't fit yet
+        assertEquals(0, accounts.restoreToBudget(1200));
+        assertEquals(0, index.restores);
+
+        // the index is restored first, the shadow one waits for the budget
+        assertEquals(1, accounts.restoreToBudget(1500));
+        assertEquals(1, index.restores);
+        assertEquals(0, shadow.restores);
+        assertEquals(1, accounts.restoreToBudget(1700));
+        assertEquals(1, shadow.restores);
+        assertEquals(1700, accounts.getRetainedBytes());
+
+        // nothing is trimmed since then
+        assertEquals(0, accounts.restoreToBudget(10000));
+        assertEquals(0, rules.restores);
+    }
+
+    @Test
+    public void registrationReplaces() throws Exception {
+        MemoryAccounts accounts = new MemoryAccounts();
+        accounts.register("cache", MemoryAccounts.PRIORITY_CACHE, new Structure(10));
+        accounts.register("cache", MemoryAccounts.PRIORITY_CACHE, new Structure(20));
+        assertEquals(1, accounts.getAccounts().size());
+        assertEquals(20, accounts.getRetainedBytes());
+    }
+}
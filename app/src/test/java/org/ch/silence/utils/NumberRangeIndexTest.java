@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class NumberRangeIndexTest {
+    private static int[] query(NumberRangeIndex index, String number) {
+        int[] values = index.query(NumberRangeIndex.toKey(number)).clone();
+        Arrays.sort(values);
+        return values;
+    }
+
+    @Test
+    public void ranges() throws Exception {
+        NumberRangeIndex.Builder builder = new NumberRangeIndex.Builder();
+        long[] range = NumberRangeIndex.parse(null, "+1 555 0100..+1 555 0199");
+        builder.add(range[0], range[1], 1);
+        range = NumberRangeIndex.parse(null, "+15550150..+15550250");
+        builder.add(range[0], range[1], 2);
+        range = NumberRangeIndex.parse(null, "0800000..0899999");
+        builder.add(range[0], range[1], 3);
+        NumberRangeIndex index = builder.build();
+
+        assertArrayEquals(new int[]{1}, query(index, "+15550100"));
+        assertArrayEquals(new int[]{1, 2}, query(index, "+15550199"));
+        assertArrayEquals(new int[]{2}, query(index, "+15550250"));
+        assertArrayEquals(new int[]{}, query(index, "+15550251"));
+        assertArrayEquals(new int[]{}, query(index, "15550150"));
+        assertArrayEquals(new int[]{}, query(index, "+155501500"));
+        assertArrayEquals(new int[]{3}, query(index, "0812345"));
+        assertArrayEquals(new int[]{}, query(index, "abc"));
+    }
+
+    @Test
+    public void invalidRanges() throws Exception {
+        String[] ranges = {"+15550199..+15550100", "+1555..+15550199", "+1555", "a..b", "..+1555"};
+        for (String range : ranges) {
+            assertNull(NumberRangeIndex.parse(null, range));
+        }
+    }
+
+    @Test
+    public void randomRanges() throws Exception {
+        Random random = new Random(1);
+        int count = 500;
+        long[] from = new long[count];
+        long[] to = new long[count];
+        NumberRangeIndex.Builder builder = new NumberRangeIndex.Builder();
+        for (int i = 0; i < count; i++) {
+            from[i] = random.nextInt(10000);
+            to[i] = from[i] + random.nextInt(300);
+            builder.add(from[i], to[i], i);
+        }
+        NumberRangeIndex index = builder.build();
+        assertEquals(count, index.size());
+
+        for (long key = 0; key < 10500; key += 7) {
+            int expected = 0;
+            for (int i = 0; i < count; i++) {
+                if (from[i] <= key && key <= to[i]) {
+                    expected++;
+                }
+            }
+            int[] values = index.query(key);
+            assertEquals("key = " + key, expected, values.length);
+            for (int value : values) {
+                assertTrue(from[value] <= key && key <= to[value]);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PatternAutomatonTest {
+    private static int[] match(PatternAutomaton automaton, String number) {
+        int[] values = automaton.match(number).clone();
+        Arrays.sort(values);
+        return values;
+    }
+
+    @Test
+    public void wildcards() throws Exception {
+        PatternAutomaton.Builder builder = new PatternAutomaton.Builder();
+        assertTrue(builder.add("+1-900-???-????", 1));
+        assertTrue(builder.add("+7 (9[0-3]5) *", 2));
+        assertTrue(builder.add("*666", 3));
+        PatternAutomaton automaton = builder.build();
+
+        assertArrayEquals(new int[]{1}, match(automaton, "+19005551234"));
+        assertArrayEquals(new int[]{}, match(automaton, "+1900555123"));
+        assertArrayEquals(new int[]{}, match(automaton, "+190055512345"));
+        assertArrayEquals(new int[]{2}, match(automaton, "+79251234567"));
+        assertArrayEquals(new int[]{2}, match(automaton, "+7935"));
+        assertArrayEquals(new int[]{}, match(automaton, "+79451234567"));
+        assertArrayEquals(new int[]{2}, match(automaton, "+7905123666"));
+        assertArrayEquals(new int[]{3}, match(automaton, "7905123666"));
+        assertArrayEquals(new int[]{3}, match(automaton, "666"));
+        assertArrayEquals(new int[]{}, match(automaton, "+1900555123a"));
+    }
+
+    @Test
+    public void bothForms() throws Exception {
+        PatternAutomaton.Builder builder = new PatternAutomaton.Builder();
+        // white list pattern in the local form
+        builder.add("8905*", 1);
+        // black list pattern in the canonical form
+        builder.add("+7905*", 2);
+        builder.add("*4567", 3);
+        PatternAutomaton automaton = builder.build();
+
+        int[] values = automaton.match("+79051234567", "89051234567").clone();
+        Arrays.sort(values);
+        assertArrayEquals(new int[]{1, 2, 3}, values);
+        assertArrayEquals(new int[]{2}, automaton.match("+79050000000", "+79050000000"));
+        assertArrayEquals(new int[]{1}, automaton.match("+78905", "8905"));
+    }
+
+    @Test
+    public void sameValues() throws Exception {
+        PatternAutomaton.Builder builder = new PatternAutomaton.Builder();
+        builder.add("12?", 5);
+        builder.add("1?3", 6);
+        builder.add("*", 7);
+        PatternAutomaton automaton = builder.build();
+
+        assertArrayEquals(new int[]{5, 6, 7}, match(automaton, "123"));
+        assertArrayEquals(new int[]{5, 7}, match(automaton, "124"));
+        assertArrayEquals(new int[]{7}, match(automaton, "12"));
+        assertArrayEquals(new int[]{}, match(automaton, "+12"));
+    }
+
+    @Test
+    public void invalidPatterns() throws Exception {
+        String[] patterns = {"", " - ", "12a", "[", "[9-0]", "[+]", "1[]2"};
+        for (String pattern : patterns) {
+            assertFalse("pattern = {" + pattern + "}", PatternAutomaton.isValid(pattern));
+        }
+        assertArrayEquals(new int[]{}, new PatternAutomaton.Builder().build().match("123"));
+    }
+
+    @Test
+    public void statesLimit() throws Exception {
+        // the digit at the 14th position from the end needs 2^14 DFA states
+        PatternAutomaton.Builder builder = new PatternAutomaton.Builder();
+        builder.add("*1?????????????", 1);
+        builder.add("8*", 2);
+        PatternAutomaton automaton = builder.build();
+        assertFalse(automaton.isDeterministic());
+
+        assertArrayEquals(new int[]{1, 2}, match(automaton, "810000000000000"));
+        assertArrayEquals(new int[]{1}, match(automaton, "2210000000000000"));
+        assertArrayEquals(new int[]{2}, match(automaton, "82000000000000"));
+        assertArrayEquals(new int[]{}, match(automaton, "1000000000000"));
+        assertArrayEquals(new int[]{}, match(automaton, "+10000000000000"));
+        assertArrayEquals(new int[]{}, match(automaton, "810000000000000a"));
+    }
+}
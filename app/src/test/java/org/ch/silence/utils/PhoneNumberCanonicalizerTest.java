@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PhoneNumberCanonicalizerTest {
+    @Test
+    public void germanNumbers() throws Exception {
+        PhoneNumberCanonicalizer canonicalizer = PhoneNumberCanonicalizer.forRegion("de");
+        String canonical = "+4915112345678";
+        String[] numbers = {"+4915112345678", "015112345678", "004915112345678"};
+        for (String number : numbers) {
+            assertEquals("number = {" + number + "}", canonical, canonicalizer.canonicalize(number));
+        }
+    }
+
+    @Test
+    public void northAmericanNumbers() throws Exception {
+        PhoneNumberCanonicalizer canonicalizer = PhoneNumberCanonicalizer.forRegion("US");
+        String canonical = "+15551234567";
+        String[] numbers = {"+15551234567", "15551234567", "5551234567", "01115551234567"};
+        for (String number : numbers) {
+            assertEquals("number = {" + number + "}", canonical, canonicalizer.canonicalize(number));
+        }
+    }
+
+    @Test
+    public void russianNumbers() throws Exception {
+        PhoneNumberCanonicalizer canonicalizer = PhoneNumberCanonicalizer.forRegion("RU");
+        assertEquals("+79161234567", canonicalizer.canonicalize("89161234567"));
+        assertEquals("+4915112345678", canonicalizer.canonicalize("8104915112345678"));
+    }
+
+    @Test
+    public void numbersWithoutTrunkPrefix() throws Exception {
+        PhoneNumberCanonicalizer canonicalizer = PhoneNumberCanonicalizer.forRegion("IT");
+        assertEquals("+390612345678", canonicalizer.canonicalize("0612345678"));
+        assertEquals("+393471234567", canonicalizer.canonicalize("3471234567"));
+    }
+
+    @Test
+    public void notCanonicalizedNumbers() throws Exception {
+        PhoneNumberCanonicalizer canonicalizer = PhoneNumberCanonicalizer.forRegion("DE");
+        String[] numbers = {"", "112", "0800", "Vodafone", "*100#"};
+        for (String number : numbers) {
+            assertEquals("number = {" + number + "}", number, canonicalizer.canonicalize(number));
+        }
+    }
+
+    @Test
+    public void unknownRegion() throws Exception {
+        assertNull(PhoneNumberCanonicalizer.forRegion("XX"));
+        assertNull(PhoneNumberCanonicalizer.forRegion(null));
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShadowLogTest {
+    @Test
+    public void mismatches() throws Exception {
+        ShadowLog log = new ShadowLog(2);
+        // order and repeats don't matter
+        assertFalse(log.record(1, "+1", new long[]{3, 1, 3}, 300, new long[]{1, 3}, 100));
+        assertTrue(log.record(2, "+2", new long[]{1}, 300, new long[0], 100));
+        assertTrue(log.record(3, "+3", new long[0], 300, new long[]{2}, 100));
+        assertTrue(log.record(4, "+4", new long[]{5}, 300, new long[]{4}, 100));
+
+        assertEquals(4, log.getComparisonsCount());
+        assertEquals(3, log.getMismatchesCount());
+        assertEquals(200, log.getAverageGapNanos());
+        List<ShadowLog.Mismatch> mismatches = log.getMismatches();
+        assertEquals(2, mismatches.size());
+        assertEquals("+3", mismatches.get(0).number);
+        assertArrayEquals(new long[]{5}, mismatches.get(1).primary);
+        assertArrayEquals(new long[]{4}, mismatches.get(1).secondary);
+
+        log.clear();
+        assertEquals(0, log.getMismatches().size());
+        assertEquals(0, log.getAverageGapNanos());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 Anton Kaliturin <kaliturin@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package org.ch.silence.utils;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SmsAssemblerTest {
+    @Test
+    public void multipart() throws Exception {
+        SmsAssembler assembler = new SmsAssembler();
+        assembler.add("+79051234567", "Hello, ", 10);
+        assembler.add("Bank", "Your code ", 20);
+        assembler.add("+79051234567", "world", 11);
+        assembler.add("Bank", "1234", 21);
+        List<SmsAssembler.Message> messages = assembler.getMessages();
+        assertEquals(2, messages.size());
+        assertEquals("+79051234567", messages.get(0).address);
+        assertEquals("Hello, world", messages.get(0).body);
+        assertEquals(10, messages.get(0).timestamp);
+        assertEquals("Your code 1234", messages.get(1).body);
+        assertFalse(messages.get(1).truncated);
+    }
+
+    @Test
+    public void bounded() throws Exception {
+        SmsAssembler assembler = new SmsAssembler();
+        StringBuilder part = new StringBuilder();
+        for (int i = 0; i < 153; i++) {
+            part.append('x');
+        }
+        for (int i = 0; i < 100; i++) {
+            assembler.add("+1", part.toString(), 0);
+        }
+        for (int i = 0; i < SmsAssembler.MAX_MESSAGES; i++) {
+            assertEquals(i < SmsAssembler.MAX_MESSAGES - 1, assembler.add("+2" + i, "x", 0));
+        }
+        List<SmsAssembler.Message> messages = assembler.getMessages();
+        assertEquals(SmsAssembler.MAX_MESSAGES, messages.size());
+        assertEquals(SmsAssembler.MAX_BODY_LENGTH, messages.get(0).body.length());
+        assertTrue(messages.get(0).truncated);
+    }
+}